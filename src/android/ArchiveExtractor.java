@@ -0,0 +1,212 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Decodes a downloaded zip or gzip file into its target in a single streaming pass, without writing the archive
+ * anywhere else. A zip archive is extracted into a directory, a gzip file is decompressed into a file.
+ * The output is first written next to the target and renamed into place when complete, so a failed or canceled
+ * extraction leaves the target as it was.
+ * Does not depend on Android.
+ */
+class ArchiveExtractor {
+
+    interface Listener {
+
+        boolean isCanceled();
+
+        /**
+         * @param bytesRead the bytes of the archive decoded so far
+         */
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    static final String FORMAT_ZIP = "zip";
+    static final String FORMAT_GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 65536;
+    // archive bytes decoded between progress updates
+    private static final long PROGRESS_INTERVAL = 1048576; //1MB
+    private static final String STAGING_SUFFIX = ".extracting";
+
+    static boolean isSupported(String format) {
+        return FORMAT_ZIP.equals(format) || FORMAT_GZIP.equals(format);
+    }
+
+    public static void extract(String format, File archive, File target, Listener listener) throws IOException {
+        File staging = new File(target.getPath() + STAGING_SUFFIX);
+        deleteRecursively(staging);
+
+        try (CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE))) {
+            Progress progress = new Progress(in, archive.length(), listener);
+            if (FORMAT_ZIP.equals(format)) {
+                extractZip(in, staging, progress);
+            } else {
+                decompressGzip(in, staging, progress);
+            }
+            progress.report();
+
+            deleteRecursively(target);
+            if (!staging.renameTo(target)) {
+                throw new IOException("Cannot move extracted files to " + target);
+            }
+        } catch (IOException e) {
+            deleteRecursively(staging);
+            throw e;
+        }
+    }
+
+    private static void extractZip(InputStream in, File dir, Progress progress) throws IOException {
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String dirPath = dir.getCanonicalPath() + File.separator;
+
+        ZipInputStream zip = new ZipInputStream(in);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            File file = new File(dir, entry.getName());
+            // entries like "../x" must not be written outside of the target directory
+            if (!file.getCanonicalPath().startsWith(dirPath)) {
+                throw new IOException("Archive entry outside of the target directory: " + entry.getName());
+            }
+
+            if (entry.isDirectory()) {
+                if (!file.isDirectory() && !file.mkdirs()) {
+                    throw new IOException("Cannot create " + file);
+                }
+                continue;
+            }
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                copy(zip, out, buffer, progress);
+            }
+        }
+    }
+
+    private static void decompressGzip(InputStream in, File file, Progress progress) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            copy(new GZIPInputStream(in, BUFFER_SIZE), out, new byte[BUFFER_SIZE], progress);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer, Progress progress) throws IOException {
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) > 0) {
+            out.write(buffer, 0, bytesRead);
+            progress.update();
+        }
+    }
+
+    static void deleteRecursively(File file) throws IOException {
+        File[] children = file.isDirectory() ? file.listFiles() : null;
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+
+    private static class Progress {
+
+        private final CountingInputStream in;
+        private final long totalBytes;
+        private final Listener listener;
+        private long reportedBytes;
+
+        Progress(CountingInputStream in, long totalBytes, Listener listener) {
+            this.in = in;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        void update() throws InterruptedIOException {
+            if (in.getCount() - reportedBytes >= PROGRESS_INTERVAL) {
+                report();
+            }
+        }
+
+        void report() throws InterruptedIOException {
+            if (listener.isCanceled()) {
+                throw new InterruptedIOException("Extraction terminated");
+            }
+            reportedBytes = in.getCount();
+            listener.onProgress(reportedBytes, totalBytes);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
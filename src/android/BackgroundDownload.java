@@ -22,21 +22,27 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
@@ -46,15 +52,27 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.app.DownloadManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.Uri;
+import android.os.Build;
 import android.os.storage.StorageManager;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 /**
  * Based on DownloadManager which is intended to be used for long-running HTTP downloads. Support of Android 2.3. (API 9) and later
- * http://developer.android.com/reference/android/app/DownloadManager.html TODO: concurrent downloads support
+ * http://developer.android.com/reference/android/app/DownloadManager.html
+ * Downloads are queued by priority, at most maxConcurrentDownloads (and maxDownloadsPerHost for a single host) are
+ * passed to DownloadManager at once.
  */
 
 public class BackgroundDownload extends CordovaPlugin {
@@ -62,12 +80,68 @@ public class BackgroundDownload extends CordovaPlugin {
     private static final String TAG = "BackgroundDownload";
 
     private static final int ERROR_CANCELED = Integer.MAX_VALUE;
+    private static final int ERROR_CHECKSUM_MISMATCH = Integer.MAX_VALUE - 1;
 
     private static final long DOWNLOAD_ID_UNDEFINED = -1;
     private static final long DOWNLOAD_PROGRESS_UPDATE_TIMEOUT = 500;
-    private static final int BUFFER_SIZE = 16777216; //16MB
+    // polling interval used when progress and completion are delivered by DownloadManager events
+    private static final long DOWNLOAD_PROGRESS_FALLBACK_TIMEOUT = 5000;
+    private static final Uri DOWNLOADS_CONTENT_URI = Uri.parse("content://downloads/my_downloads");
+    // bytes copied by the file system between checks for cancellation and progress updates
+    static final long COPY_CHUNK_SIZE = 8388608; //8MB
+    private static final String DEFAULT_NOTIFICATION_TITLE = "org.apache.cordova.backgroundDownload plugin";
+    private static final String ENGINE_HTTP = "http";
+    private static final String JOURNAL_FILE_NAME = "BackgroundDownloadJournal.json";
+    private static final String CACHE_DIR_NAME = "BackgroundDownloadCache";
+    // what a download does when reserveSpace finds too little free space
+    private static final String RESERVE_SPACE_FAIL = "fail";
+    private static final String RESERVE_SPACE_WAIT = "wait";
+    // sibling of a target while a file is copied to it, see copyFile
+    private static final String COPY_SUFFIX = ".copying";
+
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 4;
+
+    // reasons getUserFriendlyReason knows a name for
+    static final int[] KNOWN_REASONS = {
+            DownloadManager.ERROR_CANNOT_RESUME, DownloadManager.ERROR_DEVICE_NOT_FOUND,
+            DownloadManager.ERROR_FILE_ALREADY_EXISTS, DownloadManager.ERROR_FILE_ERROR,
+            DownloadManager.ERROR_HTTP_DATA_ERROR, DownloadManager.ERROR_INSUFFICIENT_SPACE,
+            DownloadManager.ERROR_TOO_MANY_REDIRECTS, DownloadManager.ERROR_UNHANDLED_HTTP_CODE,
+            DownloadManager.ERROR_UNKNOWN, HttpURLConnection.HTTP_BAD_REQUEST, HttpURLConnection.HTTP_UNAUTHORIZED,
+            HttpURLConnection.HTTP_FORBIDDEN, HttpURLConnection.HTTP_NOT_FOUND, HttpURLConnection.HTTP_INTERNAL_ERROR,
+            ERROR_CANCELED, ERROR_CHECKSUM_MISMATCH
+    };
+
+    // shared by all downloads, see getMetrics
+    static final DownloadMetrics METRICS = new DownloadMetrics();
+    private static final long DEFAULT_METRICS_INTERVAL = 5000;
+
+    // weight of the newest sample in the throughput moving average
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    // higher priority first, then in order of arrival
+    private static final Comparator<Download> QUEUE_ORDER = (a, b) -> {
+        if (a.getPriority() != b.getPriority()) {
+            return a.getPriority() > b.getPriority() ? -1 : 1;
+        }
+        return Long.compare(a.getSequence(), b.getSequence());
+    };
+
+    /**
+     * Lifecycle of a download. Transitions are atomic, so a download is finalized once and reaches exactly one final
+     * state no matter which threads race to complete, fail or cancel it. A member of an atomic batch is STAGED between
+     * verification and the commit of its batch.
+     */
+    enum State {
+        QUEUED, RUNNING, FINALIZING, STAGED, DONE, FAILED, CANCELED;
+
+        public boolean isFinal() {
+            return this == DONE || this == FAILED || this == CANCELED;
+        }
+    }
 
-    private static class Download {
+    static class Download {
 
         private Uri targetFileUri;
         private Uri tempFileUri;
@@ -76,9 +150,72 @@ public class BackgroundDownload extends CordovaPlugin {
         private final String uriMatcher;
         private final String uriString;
         private final CallbackContext callbackContext; // The callback context from which we were invoked.
-        private long downloadId = DOWNLOAD_ID_UNDEFINED;
-        private Timer timerProgressUpdate = null;
-        private boolean isCanceled;
+        // volatile with isCanceled, so a start racing with cancel sees the cancel or is seen by cleanUp
+        private volatile long downloadId = DOWNLOAD_ID_UNDEFINED;
+        private volatile boolean isCanceled;
+        private final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+        private int priority;
+        private long sequence;
+        private boolean isHeld;
+        private boolean isRunning;
+        private boolean isFinished;
+        private boolean isDirectToTarget;
+        private boolean usesHttpEngine;
+        private int segments = HttpDownloadEngine.DEFAULT_SEGMENTS;
+        private volatile HttpDownloadEngine.Transfer transfer;
+        private HttpDownloadEngine.Checkpoint checkpoint;
+        private RetryPolicy retryPolicy = RetryPolicy.NONE;
+        private int attempt = 1;
+        // progress is reported once it moved by progressDelta bytes and progressPercent percent
+        private long progressDelta;
+        private double progressPercent;
+        private long reportedBytes = -1;
+        // DownloadManager status and reason of the last paused or pending message, -1 after bytes were reported
+        private int reportedStatus = -1;
+        private int reportedReason;
+        // reused by every progress tick of this download
+        private final JSONObject tickProgress = new JSONObject();
+        private final JSONObject progressMessage = new JSONObject();
+        private long sampleBytes;
+        private long sampleTime;
+        private double throughput;
+        private boolean isCacheable;
+        private long cacheMaxAge;
+        private ExpectedDigest digest;
+        // SHA-256 of the downloaded file when it was computed for verification
+        private String contentHash;
+        private String extractFormat;
+        // admission control, null when free space is only checked after the download
+        private String reserveSpace;
+        // size of the file as given by the options or the server, -1 when unknown
+        private long expectedSize = -1;
+        // admission state, guarded by the plugin, see admit
+        private boolean isAdmitted;
+        private boolean isAdmitting;
+        private boolean isWaitingForSpace;
+        // bytes reserved on the volume (st_dev) of the temporary and target file, see getOutstandingBytes
+        private long tempVolume;
+        private long targetVolume;
+        private long reservedTempBytes;
+        private long reservedTargetBytes;
+        // bytes of the temporary file which were already on disk when the space was reserved
+        private long reservedFromBytes;
+        // DownloadManager.Request.NETWORK_* flags, 0 for any network
+        private int allowedNetworks;
+        private boolean isAllowedOverRoaming = true;
+        private boolean isAllowedOverMetered = true;
+        private boolean requiresCharging;
+        private boolean requiresIdle;
+        private long bytesReceived;
+        private long totalBytesToReceive;
+        private DownloadBatch batch;
+        // timestamps of the current attempt in milliseconds, 0 until reached
+        private long queuedAt;
+        private long startedAt;
+        private long firstByteAt;
+        private long finalizingAt;
+        private long bytesWasted;
+        private int bridgeEvents;
 
         public static Download create(JSONArray args, CallbackContext callbackContext) throws JSONException {
             String uriMatcher = null;
@@ -86,26 +223,113 @@ public class BackgroundDownload extends CordovaPlugin {
                 uriMatcher = args.getString(2);
             }
 
-            String notificationTitle = "org.apache.cordova.backgroundDownload plugin";
+            String notificationTitle = DEFAULT_NOTIFICATION_TITLE;
             if (args.length() > 3 && !"null".equals(args.getString(3))) {
                 notificationTitle = args.getString(3);
             }
 
             List<Map<String, String>> headers = new ArrayList<>();
             if (args.length() > 4 && !"null".equals(args.getString(4))) {
-                JSONArray headersArray = args.getJSONArray(4);
-                for (int i = 0; i < headersArray.length(); i++) {
-                    String key = headersArray.getJSONObject(i).getString("Key");
-                    String value = headersArray.getJSONObject(i).getString("Value");
-                    Map<String, String> header = new HashMap<>();
-                    header.put("Key", key);
-                    header.put("Value", value);
-                    headers.add(header);
+                headers = parseHeaders(args.getJSONArray(4));
+            }
+
+            Download download = new Download(args.get(0).toString(), args.get(1).toString(), notificationTitle,
+                    uriMatcher, headers, callbackContext);
+            download.applyOptions(args.optJSONObject(5));
+
+            return download;
+        }
+
+        /**
+         * Creates a batch member from its {uri, target, headers, options} spec, options of the spec override the
+         * options shared by the batch.
+         */
+        public static Download create(JSONObject spec, String uriMatcher, String notificationTitle,
+                                      JSONObject batchOptions, DownloadBatch batch) throws JSONException {
+            List<Map<String, String>> headers = new ArrayList<>();
+            if (spec.optJSONArray("headers") != null) {
+                headers = parseHeaders(spec.getJSONArray("headers"));
+            }
+
+            Download download = new Download(spec.getString("uri"), spec.getString("target"),
+                    notificationTitle != null ? notificationTitle : DEFAULT_NOTIFICATION_TITLE, uriMatcher, headers,
+                    batch.getCallbackContext());
+            download.applyOptions(batchOptions);
+            download.applyOptions(spec.optJSONObject("options"));
+            download.batch = batch;
+
+            return download;
+        }
+
+        private static List<Map<String, String>> parseHeaders(JSONArray headersArray) throws JSONException {
+            List<Map<String, String>> headers = new ArrayList<>();
+            for (int i = 0; i < headersArray.length(); i++) {
+                String key = headersArray.getJSONObject(i).getString("Key");
+                String value = headersArray.getJSONObject(i).getString("Value");
+                Map<String, String> header = new HashMap<>();
+                header.put("Key", key);
+                header.put("Value", value);
+                headers.add(header);
+            }
+            return headers;
+        }
+
+        private void applyOptions(JSONObject options) throws JSONException {
+            if (options == null) {
+                return;
+            }
+            setPriority(options.optInt("priority", priority));
+            isDirectToTarget = options.optBoolean("directToTarget", isDirectToTarget);
+            if (options.has("engine")) {
+                usesHttpEngine = ENGINE_HTTP.equals(options.optString("engine"));
+            }
+            segments = Math.max(1, options.optInt("segments", segments));
+            isCacheable = options.optBoolean("cache", isCacheable);
+            cacheMaxAge = Math.max(0, options.optLong("cacheMaxAge", cacheMaxAge));
+            progressDelta = Math.max(0, options.optLong("progressDelta", progressDelta));
+            progressPercent = Math.max(0, options.optDouble("progressPercent", progressPercent));
+            if (options.optJSONObject("retry") != null) {
+                retryPolicy = RetryPolicy.create(options.getJSONObject("retry"));
+            }
+            if (options.optJSONObject("digest") != null) {
+                digest = ExpectedDigest.create(options.getJSONObject("digest"));
+            }
+            if (options.has("reserveSpace")) {
+                reserveSpace = options.isNull("reserveSpace") ? null : options.getString("reserveSpace");
+                if (reserveSpace != null && !RESERVE_SPACE_FAIL.equals(reserveSpace)
+                        && !RESERVE_SPACE_WAIT.equals(reserveSpace)) {
+                    throw new JSONException("Unknown reserveSpace mode " + reserveSpace);
+                }
+            }
+            expectedSize = options.optLong("expectedSize", expectedSize);
+            JSONArray networks = options.optJSONArray("allowedNetworks");
+            if (networks != null) {
+                allowedNetworks = 0;
+                for (int i = 0; i < networks.length(); i++) {
+                    allowedNetworks |= parseNetworkType(networks.getString(i));
+                }
+            }
+            isAllowedOverRoaming = options.optBoolean("allowRoaming", isAllowedOverRoaming);
+            isAllowedOverMetered = options.optBoolean("allowMetered", isAllowedOverMetered);
+            requiresCharging = options.optBoolean("requiresCharging", requiresCharging);
+            requiresIdle = options.optBoolean("requiresIdle", requiresIdle);
+            if (options.has("extract")) {
+                extractFormat = options.isNull("extract") ? null : options.getString("extract");
+                if (extractFormat != null && !ArchiveExtractor.isSupported(extractFormat)) {
+                    throw new JSONException("Unsupported archive format " + extractFormat);
                 }
             }
+        }
 
-            return new Download(args.get(0).toString(), args.get(1).toString(), notificationTitle, uriMatcher, headers,
-                    callbackContext);
+        private static int parseNetworkType(String network) throws JSONException {
+            switch (network) {
+                case "wifi":
+                    return DownloadManager.Request.NETWORK_WIFI;
+                case "mobile":
+                    return DownloadManager.Request.NETWORK_MOBILE;
+                default:
+                    throw new JSONException("Unknown network type " + network);
+            }
         }
 
         public Download(String uriString, String targetFileUri, String notificationTitle,
@@ -162,12 +386,412 @@ public class BackgroundDownload extends CordovaPlugin {
             this.downloadId = downloadId;
         }
 
-        public Timer getTimerProgressUpdate() {
-            return timerProgressUpdate;
+        public String getHost() {
+            String host = Uri.parse(uriString).getHost();
+            return host != null ? host : "";
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        public boolean isHeld() {
+            return isHeld;
+        }
+
+        public void setHeld(boolean held) {
+            this.isHeld = held;
+        }
+
+        public boolean isRunning() {
+            return isRunning;
+        }
+
+        public void setRunning(boolean running) {
+            this.isRunning = running;
+        }
+
+        public boolean isDirectToTarget() {
+            return isDirectToTarget;
+        }
+
+        public boolean usesHttpEngine() {
+            return usesHttpEngine;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public HttpDownloadEngine.Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        public void setCheckpoint(HttpDownloadEngine.Checkpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        /**
+         * @return how long a cached copy is used without asking the server, in milliseconds
+         */
+        public long getCacheMaxAge() {
+            return cacheMaxAge;
+        }
+
+        public String getReserveSpace() {
+            return reserveSpace;
+        }
+
+        public long getExpectedSize() {
+            return expectedSize;
+        }
+
+        public void setExpectedSize(long expectedSize) {
+            this.expectedSize = expectedSize;
+        }
+
+        /**
+         * @return whether the download asks for admission control and was not admitted yet
+         */
+        public boolean needsAdmission() {
+            return reserveSpace != null && !isAdmitted;
+        }
+
+        public void setAdmitted(boolean admitted) {
+            this.isAdmitted = admitted;
+        }
+
+        public boolean isAdmitting() {
+            return isAdmitting;
+        }
+
+        public void setAdmitting(boolean admitting) {
+            this.isAdmitting = admitting;
+        }
+
+        public boolean isWaitingForSpace() {
+            return isWaitingForSpace;
+        }
+
+        public void setWaitingForSpace(boolean waitingForSpace) {
+            this.isWaitingForSpace = waitingForSpace;
+        }
+
+        public boolean isSpaceReserved() {
+            return reservedTempBytes > 0 || reservedTargetBytes > 0;
+        }
+
+        public void setReservation(long tempVolume, long tempBytes, long fromBytes, long targetVolume,
+                                   long targetBytes) {
+            this.tempVolume = tempVolume;
+            this.reservedTempBytes = tempBytes;
+            this.reservedFromBytes = fromBytes;
+            this.targetVolume = targetVolume;
+            this.reservedTargetBytes = targetBytes;
+        }
+
+        /**
+         * @return the bytes reserved on the volume which the download has not written yet, the free space reported by
+         *     the system already accounts for the written ones
+         */
+        public long getOutstandingBytes(long volume) {
+            long bytes = 0;
+            if (reservedTempBytes > 0 && tempVolume == volume) {
+                long written = Math.max(0, bytesReceived - reservedFromBytes);
+                bytes += Math.max(0, reservedTempBytes - written);
+            }
+            if (reservedTargetBytes > 0 && targetVolume == volume) {
+                bytes += reservedTargetBytes;
+            }
+            return bytes;
+        }
+
+        /**
+         * @return whether the network and power policies of the download allow it to run now. requiresIdle is not
+         *     checked, the "device not in use" state of JobScheduler cannot be queried, see applyPolicy
+         */
+        public boolean isAllowed(DeviceConditions conditions) {
+            return (allowedNetworks == 0 || (allowedNetworks & conditions.getNetworkType()) != 0)
+                    && (isAllowedOverRoaming || !conditions.isRoaming())
+                    && (isAllowedOverMetered || !conditions.isMetered())
+                    && (!requiresCharging || conditions.isCharging());
+        }
+
+        public boolean hasPolicy() {
+            return allowedNetworks != 0 || !isAllowedOverRoaming || !isAllowedOverMetered || requiresCharging;
+        }
+
+        /**
+         * Passes the policies to DownloadManager, which keeps enforcing them while the download runs. Only
+         * DownloadManager honors requiresIdle, the "http" engine ignores it.
+         */
+        public void applyPolicy(DownloadManager.Request request) {
+            if (allowedNetworks != 0) {
+                request.setAllowedNetworkTypes(allowedNetworks);
+            }
+            request.setAllowedOverRoaming(isAllowedOverRoaming);
+            request.setAllowedOverMetered(isAllowedOverMetered);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                request.setRequiresCharging(requiresCharging);
+                request.setRequiresDeviceIdle(requiresIdle);
+            }
+        }
+
+        /**
+         * @return "zip" or "gzip" when the downloaded file is decoded into the target, otherwise null
+         */
+        public String getExtractFormat() {
+            return extractFormat;
+        }
+
+        public boolean isCacheable() {
+            // the cache keeps downloaded files, extracted targets cannot be restored from it
+            return isCacheable && extractFormat == null;
+        }
+
+        public ExpectedDigest getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return the expected SHA-256 of the file, if the download has one
+         */
+        public String getExpectedHash() {
+            return digest != null && ExpectedDigest.SHA_256.equals(digest.getAlgorithm()) ? digest.getValue() : null;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public void setContentHash(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        public int getAttempt() {
+            return attempt;
+        }
+
+        public void setAttempt(int attempt) {
+            this.attempt = attempt;
+        }
+
+        public HttpDownloadEngine.Transfer getTransfer() {
+            return transfer;
+        }
+
+        public void setTransfer(HttpDownloadEngine.Transfer transfer) {
+            this.transfer = transfer;
+        }
+
+        public DownloadBatch getBatch() {
+            return batch;
+        }
+
+        /**
+         * @return whether the download is only moved to its target together with the rest of its batch
+         */
+        public boolean isAtomic() {
+            return batch != null && batch.isAtomic();
+        }
+
+        public boolean isFinished() {
+            return isFinished;
+        }
+
+        public void setFinished(boolean finished) {
+            this.isFinished = finished;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getTotalBytesToReceive() {
+            return totalBytesToReceive;
+        }
+
+        public void setBytes(long bytesReceived, long totalBytesToReceive) {
+            if (firstByteAt == 0 && startedAt > 0 && bytesReceived > this.bytesReceived) {
+                firstByteAt = System.currentTimeMillis();
+                METRICS.timeToFirstByte.record(firstByteAt - startedAt);
+            }
+            this.bytesReceived = bytesReceived;
+            this.totalBytesToReceive = totalBytesToReceive;
+        }
+
+        public void setQueuedAt(long queuedAt) {
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Starts a new attempt, recording how long it waited in the queue.
+         */
+        public void setStartedAt(long startedAt) {
+            if (queuedAt > 0) {
+                METRICS.queueWait.record(startedAt - queuedAt);
+            }
+            this.startedAt = startedAt;
+            this.firstByteAt = 0;
+        }
+
+        public void setFinalizingAt(long finalizingAt) {
+            this.finalizingAt = finalizingAt;
+        }
+
+        public void addBytesWasted(long bytes) {
+            bytesWasted += bytes;
+            METRICS.bytesWasted.addAndGet(bytes);
+        }
+
+        private void countBridgeEvent() {
+            bridgeEvents++;
+            METRICS.bridgeEvents.incrementAndGet();
+        }
+
+        private void recordOutcome(State finalState) {
+            switch (finalState) {
+                case DONE:
+                    METRICS.succeeded.incrementAndGet();
+                    METRICS.bytesReceived.addAndGet(bytesReceived);
+                    if (startedAt > 0 && finalizingAt > startedAt) {
+                        METRICS.throughput.record(bytesReceived * 1000 / (finalizingAt - startedAt));
+                    }
+                    break;
+                case FAILED:
+                    METRICS.failed.incrementAndGet();
+                    break;
+                case CANCELED:
+                    METRICS.canceled.incrementAndGet();
+                    addBytesWasted(bytesReceived);
+                    break;
+            }
+        }
+
+        public JSONObject getMetrics() throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("uri", uriString);
+            obj.put("state", state.get().name());
+            obj.put("attempt", attempt);
+            obj.put("bytesReceived", bytesReceived);
+            obj.put("totalBytesToReceive", totalBytesToReceive);
+            obj.put("throughput", getThroughput());
+            obj.put("bytesWasted", bytesWasted);
+            obj.put("bridgeEvents", bridgeEvents);
+            if (startedAt > 0) {
+                obj.put("queueWait", queuedAt > 0 ? startedAt - queuedAt : 0);
+            }
+            if (firstByteAt > 0) {
+                obj.put("timeToFirstByte", firstByteAt - startedAt);
+            }
+            return obj;
+        }
+
+        /**
+         * Updates the throughput with the bytes received since the previous sample.
+         */
+        public void sampleThroughput(long bytesReceived, long now) {
+            if (bytesReceived < sampleBytes) {
+                // started over, the previous samples say nothing about the new attempt
+                throughput = 0;
+            } else if (sampleTime > 0 && now > sampleTime) {
+                double current = (bytesReceived - sampleBytes) * 1000.0 / (now - sampleTime);
+                // exponential moving average smooths out the bursts of a single tick
+                throughput = throughput == 0 ? current : THROUGHPUT_SMOOTHING * current + (1 - THROUGHPUT_SMOOTHING) * throughput;
+            }
+            sampleBytes = bytesReceived;
+            sampleTime = now;
+        }
+
+        /**
+         * @return the smoothed throughput in bytes per second
+         */
+        public long getThroughput() {
+            return (long) throughput;
+        }
+
+        /**
+         * @return the estimated seconds until the download completes, -1 if unknown
+         */
+        public long getEta() {
+            if (totalBytesToReceive <= 0 || throughput <= 0) {
+                return -1;
+            }
+            return (long) Math.ceil(Math.max(0, totalBytesToReceive - bytesReceived) / throughput);
+        }
+
+        /**
+         * @return whether the bytes moved enough since the previous report to send a new one
+         */
+        public boolean shouldReportBytes(long bytesReceived, long totalBytesToReceive) {
+            if (reportedBytes < 0) {
+                return true;
+            }
+            long delta = bytesReceived - reportedBytes;
+            if (delta < 0) {
+                // started over, e.g. DownloadManager retried without resuming
+                return true;
+            }
+            if (delta == 0 || delta < progressDelta) {
+                return false;
+            }
+            return totalBytesToReceive <= 0 || delta * 100.0 / totalBytesToReceive >= progressPercent;
+        }
+
+        public void setReportedBytes(long bytesReceived) {
+            this.reportedBytes = bytesReceived;
+            this.reportedStatus = -1;
+        }
+
+        /**
+         * Forgets the progress of the previous attempt, so the next one is reported from its own start.
+         *
+         * @param isResumable whether the next attempt continues with the bytes received so far
+         */
+        public void resetProgress(boolean isResumable) {
+            if (!isResumable) {
+                this.bytesReceived = 0;
+            }
+            this.reportedBytes = -1;
+            this.reportedStatus = -1;
+            this.sampleBytes = 0;
+            this.sampleTime = 0;
+            this.throughput = 0;
+        }
+
+        /**
+         * @return whether the status differs from the previously reported one, checked before building the message
+         */
+        public boolean shouldReportStatus(int status, int reason) {
+            return status != reportedStatus || reason != reportedReason;
+        }
+
+        public void setReportedStatus(int status, int reason) {
+            this.reportedStatus = status;
+            this.reportedReason = reason;
         }
 
-        public void setTimerProgressUpdate(Timer TimerProgressUpdate) {
-            this.timerProgressUpdate = TimerProgressUpdate;
+        /**
+         * @return the progress object of this download, refilled by every tick
+         */
+        public JSONObject getTickProgress() {
+            return tickProgress;
         }
 
         public void cancel() {
@@ -178,188 +802,1714 @@ public class BackgroundDownload extends CordovaPlugin {
             return this.isCanceled;
         }
 
-        public void reportError(int errorCode) {
-            String reasonMsg = getUserFriendlyReason(errorCode);
-            if ("".equals(reasonMsg))
-                reasonMsg = String.format(Locale.getDefault(), "Download operation failed with reason: %d", errorCode);
-
-            reportError(reasonMsg);
+        public State getState() {
+            return state.get();
+        }
+
+        /**
+         * Moves the download from the expected state to the new one.
+         *
+         * @return false when the download was not in the expected state
+         */
+        public boolean transition(State from, State to) {
+            return state.compareAndSet(from, to);
+        }
+
+        /**
+         * Moves the download to a final state unless it already reached one.
+         *
+         * @return false when the download was already reported, it must not be reported again
+         */
+        private boolean finish(State finalState) {
+            // under the progress lock, so no progress update is sent after the result
+            synchronized (progressMessage) {
+                State current;
+                do {
+                    current = state.get();
+                    if (current.isFinal()) {
+                        return false;
+                    }
+                } while (!state.compareAndSet(current, finalState));
+            }
+            recordOutcome(finalState);
+            return true;
+        }
+
+        public void reportError(int errorCode) {
+            String reasonMsg = getUserFriendlyReason(errorCode);
+            if ("".equals(reasonMsg))
+                reasonMsg = String.format(Locale.getDefault(), "Download operation failed with reason: %d", errorCode);
+
+            if (finish(errorCode == ERROR_CANCELED ? State.CANCELED : State.FAILED)) {
+                sendError(reasonMsg);
+            }
+        }
+
+        public void reportError(String msg) {
+            if (finish(State.FAILED)) {
+                sendError(msg);
+            }
+        }
+
+        private void sendError(String msg) {
+            if (batch != null) {
+                batch.onMemberFinished(this, msg);
+                return;
+            }
+            countBridgeEvent();
+            this.callbackContext.error(msg);
+        }
+
+        public void reportSuccess() {
+            if (!finish(State.DONE)) {
+                return;
+            }
+            if (batch != null) {
+                batch.onMemberFinished(this, null);
+                return;
+            }
+            countBridgeEvent();
+            this.callbackContext.success();
+        }
+
+        public void reportProgress(JSONObject progress) throws JSONException {
+            // batch members are reported in aggregate by DownloadBatch.flush
+            if (batch != null) {
+                return;
+            }
+            // PluginResult serializes the message right away, so the wrapper can be reused
+            synchronized (progressMessage) {
+                if (state.get().isFinal()) {
+                    // e.g. "Download queued" of a download stopped while it was being queued
+                    return;
+                }
+                progressMessage.put("progress", progress);
+                PluginResult progressUpdate = new PluginResult(PluginResult.Status.OK, progressMessage);
+                progressUpdate.setKeepCallback(true);
+                countBridgeEvent();
+                this.callbackContext.sendPluginResult(progressUpdate);
+            }
+        }
+
+        public void reportMessage(String message) {
+            try {
+                JSONObject progress = new JSONObject();
+                progress.put("message", message);
+                reportProgress(progress);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Called by the finalizing thread as soon as a download entered FINALIZING, lets tests hold a download there.
+     */
+    interface FinalizationHook {
+
+        void onFinalizing(String uri);
+    }
+
+    private final ExistingDownloadIndex existingDownloads = new ExistingDownloadIndex();
+
+    // null outside of tests
+    volatile FinalizationHook finalizationHook = null;
+
+    // subscriber of the progress of all downloads, see subscribeProgress
+    private CallbackContext aggregateProgressCallback = null;
+    private long aggregateReportedBytes = -1;
+    private int aggregateReportedCount = -1;
+
+    // subscriber of periodic metrics, see subscribeMetrics
+    private CallbackContext metricsCallback = null;
+    private Timer metricsTimer = null;
+
+    // keyed by uri, a uri is downloaded once at a time
+    private final ConcurrentHashMap<String, Download> activeDownloads = new ConcurrentHashMap<>();
+    private final HashMap<String, DownloadBatch> activeBatches = new HashMap<>();
+
+    // downloads polled by the shared progress timer, at most one per DownloadManager id. Lists, so a tick can walk
+    // them by index without allocating an iterator; a few dozen downloads are tracked at most.
+    private final ArrayList<Download> trackedDownloads = new ArrayList<>();
+
+    // downloads of the in-process engine, they have no DownloadManager id
+    private final ArrayList<Download> trackedTransfers = new ArrayList<>();
+    private HttpDownloadEngine httpEngine = null;
+    // delays failed downloads until they are queued again
+    private Timer retryTimer = null;
+    private DownloadJournal journal = null;
+    private DownloadCache downloadCache = null;
+
+    // incremented whenever trackedDownloads changes, so the progress query is only rebuilt then
+    private int trackedDownloadsVersion = 0;
+
+    // reused by every progress tick, only touched while holding progressTickLock
+    private final Object progressTickLock = new Object();
+    private Download[] tickDownloads = new Download[0];
+    private long[] tickIds = new long[0];
+    private boolean[] tickSeen = new boolean[0];
+    private int tickDownloadCount = 0;
+    private final ArrayList<Download> tickTransfers = new ArrayList<>();
+    private DownloadManager.Query progressQuery = null;
+    private int progressQueryVersion = -1;
+    // the columns of DownloadManager cursors do not change, so their indices are looked up once
+    private int idxId = -1;
+    private int idxStatus;
+    private int idxReason;
+    private int idxBytesDownloaded;
+    private int idxBytesTotal;
+
+    // single timer thread shared by all downloads, alive only while something is tracked
+    private Timer progressTimer = null;
+    private long progressTimerPeriod = 0;
+    private boolean isProgressUpdateScheduled = false;
+    private long lastProgressUpdateTime = 0;
+
+    // event sources, when both are registered the timer is only a fallback
+    private BroadcastReceiver downloadCompleteReceiver = null;
+    // reschedule downloads waiting for other network or power conditions, the callback is registered from N on
+    private BroadcastReceiver conditionsReceiver = null;
+    private ConnectivityManager.NetworkCallback networkCallback = null;
+    private ContentObserver downloadsObserver = null;
+    private volatile boolean isEventDriven = false;
+
+    // downloads waiting for a free slot, see QUEUE_ORDER
+    private final TreeSet<Download> queuedDownloads = new TreeSet<>(QUEUE_ORDER);
+    private final HashMap<String, Integer> runningDownloadsPerHost = new HashMap<>();
+    private int runningDownloads = 0;
+    private long queueSequence = 0;
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+    private int maxDownloadsPerHost = DEFAULT_MAX_DOWNLOADS_PER_HOST;
+    // admitted downloads holding a reservation of free space until they are cleaned up
+    private final HashSet<Download> reservingDownloads = new HashSet<>();
+    // serializes admissions, so each one sees the reservations of the previous ones
+    private final Object admissionLock = new Object();
+
+    // limits of the in-process engine, 0 for none
+    private long maxBytesPerSecond = 0;
+    private long maxBytesPerSecondMetered = 0;
+
+    private DownloadManager getDownloadManager() {
+        return (DownloadManager) cordova.getActivity().getSystemService(Context.DOWNLOAD_SERVICE);
+    }
+
+    @Override
+    protected void pluginInitialize() {
+        httpEngine = new HttpDownloadEngine(cordova.getThreadPool());
+
+        Context context = cordova.getActivity().getApplicationContext();
+        journal = new DownloadJournal(new File(context.getFilesDir(), JOURNAL_FILE_NAME));
+        downloadCache = new DownloadCache(new File(context.getCacheDir(), CACHE_DIR_NAME));
+        try {
+            downloadCompleteReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    long downloadId = intent.getLongExtra(DownloadManager.EXTRA_DOWNLOAD_ID, DOWNLOAD_ID_UNDEFINED);
+                    if (isTracked(downloadId)) {
+                        requestProgressUpdate(0);
+                    } else if (existingDownloads.contains(downloadId)) {
+                        // an entry of a previous session finished, a failed one must not be attached to
+                        cordova.getThreadPool().execute(() -> {
+                            if (!isAttachable(getDownloadManager(), downloadId)) {
+                                existingDownloads.remove(downloadId);
+                            }
+                        });
+                    }
+                }
+            };
+            IntentFilter filter = new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                context.registerReceiver(downloadCompleteReceiver, filter, Context.RECEIVER_EXPORTED);
+            } else {
+                context.registerReceiver(downloadCompleteReceiver, filter);
+            }
+
+            downloadsObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    requestThrottledProgressUpdate();
+                }
+            };
+            context.getContentResolver().registerContentObserver(DOWNLOADS_CONTENT_URI, true, downloadsObserver);
+
+            isEventDriven = true;
+        } catch (Exception ex) {
+            Log.w(TAG, "Cannot subscribe to DownloadManager events, falling back to polling", ex);
+            unregisterDownloadEvents();
+        }
+
+        conditionsReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                cordova.getThreadPool().execute(BackgroundDownload.this::onConditionsChanged);
+            }
+        };
+        IntentFilter conditionsFilter = new IntentFilter();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            registerNetworkCallback(context);
+        } else {
+            addConnectivityAction(conditionsFilter);
+        }
+        conditionsFilter.addAction(Intent.ACTION_POWER_CONNECTED);
+        conditionsFilter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(conditionsReceiver, conditionsFilter, Context.RECEIVER_EXPORTED);
+        } else {
+            context.registerReceiver(conditionsReceiver, conditionsFilter);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void addConnectivityAction(IntentFilter filter) {
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+    }
+
+    /**
+     * Reschedules when the default network or its type, roaming or metered state changes. Capabilities also change
+     * with e.g. the signal strength, those changes are ignored.
+     */
+    private void registerNetworkCallback(Context context) {
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            // networkType, isRoaming and isMetered of the default network, -1 when unknown
+            private int lastState = -1;
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                int state = DeviceConditions.getNetworkType(capabilities)
+                        | (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING) ? 0 : 0x100)
+                        | (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED) ? 0 : 0x200);
+                if (state != lastState) {
+                    lastState = state;
+                    cordova.getThreadPool().execute(BackgroundDownload.this::onConditionsChanged);
+                }
+            }
+
+            @Override
+            public void onLost(Network network) {
+                lastState = -1;
+                cordova.getThreadPool().execute(BackgroundDownload.this::onConditionsChanged);
+            }
+        };
+        ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE))
+                .registerDefaultNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterDownloadEvents();
+        Context context = cordova.getActivity().getApplicationContext();
+        if (conditionsReceiver != null) {
+            context.unregisterReceiver(conditionsReceiver);
+            conditionsReceiver = null;
+        }
+        if (networkCallback != null) {
+            ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE))
+                    .unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        synchronized (this) {
+            if (progressTimer != null) {
+                progressTimer.cancel();
+                progressTimer = null;
+            }
+            if (retryTimer != null) {
+                retryTimer.cancel();
+                retryTimer = null;
+            }
+            if (metricsTimer != null) {
+                metricsTimer.cancel();
+                metricsTimer = null;
+            }
+            isProgressUpdateScheduled = false;
+        }
+    }
+
+    private void unregisterDownloadEvents() {
+        Context context = cordova.getActivity().getApplicationContext();
+        isEventDriven = false;
+        if (downloadCompleteReceiver != null) {
+            try {
+                context.unregisterReceiver(downloadCompleteReceiver);
+            } catch (IllegalArgumentException ignored) {
+                // was not registered
+            }
+            downloadCompleteReceiver = null;
+        }
+        if (downloadsObserver != null) {
+            context.getContentResolver().unregisterContentObserver(downloadsObserver);
+            downloadsObserver = null;
+        }
+    }
+
+    @Override
+    public boolean execute(String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        try {
+            if (action.equals("startAsync")) {
+                cordova.getThreadPool().execute(() -> {
+                    try {
+                        startAsync(args, callbackContext);
+                    } catch (JSONException ex) {
+                        callbackContext.error(ex.getMessage());
+                    }
+                });
+
+                return true;
+            }
+            if (action.equals("startBatch")) {
+                cordova.getThreadPool().execute(() -> {
+                    try {
+                        startBatch(args, callbackContext);
+                    } catch (JSONException ex) {
+                        callbackContext.error(ex.getMessage());
+                    }
+                });
+
+                return true;
+            }
+            if (action.equals("stop")) {
+                stop(args, callbackContext);
+                return true;
+            }
+            if (action.equals("setPriority")) {
+                setPriority(args, callbackContext);
+                return true;
+            }
+            if (action.equals("pause")) {
+                setHeld(args, callbackContext, true);
+                return true;
+            }
+            if (action.equals("resume")) {
+                setHeld(args, callbackContext, false);
+                return true;
+            }
+            if (action.equals("subscribeProgress")) {
+                subscribeProgress(callbackContext);
+                return true;
+            }
+            if (action.equals("unsubscribeProgress")) {
+                unsubscribeProgress(callbackContext);
+                return true;
+            }
+            if (action.equals("configure")) {
+                configure(args, callbackContext);
+                return true;
+            }
+            if (action.equals("getMetrics")) {
+                callbackContext.success(getMetrics());
+                return true;
+            }
+            if (action.equals("subscribeMetrics")) {
+                subscribeMetrics(args, callbackContext);
+                return true;
+            }
+            if (action.equals("unsubscribeMetrics")) {
+                unsubscribeMetrics(callbackContext);
+                return true;
+            }
+            return false; // invalid action
+        } catch (Exception ex) {
+            callbackContext.error(ex.getMessage());
+        }
+        return true;
+    }
+
+    private void startAsync(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        Download curDownload = Download.create(args, callbackContext);
+        if (!register(curDownload)) {
+            return;
+        }
+
+        startDownloads(Collections.singletonList(curDownload));
+    }
+
+    private void startBatch(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONArray specs = args.getJSONArray(1);
+        String uriMatcher = args.isNull(2) ? null : args.getString(2);
+        String notificationTitle = args.isNull(3) ? null : args.getString(3);
+        JSONObject batchOptions = args.optJSONObject(4);
+        final DownloadBatch batch = new DownloadBatch(args.getString(0), callbackContext,
+                batchOptions != null && batchOptions.optBoolean("atomic", false));
+        if (batch.isAtomic()) {
+            // the batch is only useful as a whole, so the first failure stops the rest
+            batch.setOnMemberFailed(() -> cordova.getThreadPool().execute(() -> cancelBatch(batch)));
+        }
+        batch.setOnFinished(() -> removeBatch(batch));
+
+        if (specs.length() == 0) {
+            JSONObject result = new JSONObject();
+            result.put("succeeded", new JSONArray());
+            result.put("failed", new JSONArray());
+            callbackContext.success(result);
+            return;
+        }
+
+        List<Download> duplicates = new ArrayList<>();
+        List<Download> downloads = new ArrayList<>();
+        for (int i = 0; i < specs.length(); i++) {
+            Download curDownload = Download.create(specs.getJSONObject(i), uriMatcher, notificationTitle,
+                    batchOptions, batch);
+            batch.addMember(curDownload);
+            if (register(curDownload)) {
+                downloads.add(curDownload);
+            } else {
+                duplicates.add(curDownload);
+            }
+        }
+
+        synchronized (this) {
+            // members may have finished already, e.g. when all of them were served from the cache
+            if (!batch.isFinished()) {
+                activeBatches.put(batch.getId(), batch);
+            }
+        }
+
+        for (Download curDownload : duplicates) {
+            curDownload.reportError("download request is already in progress");
+        }
+
+        startDownloads(downloads);
+    }
+
+    /**
+     * Adds the download to the active ones unless the same uri is already downloading.
+     */
+    private boolean register(Download curDownload) {
+        curDownload.setTempFileUri(Uri.fromFile(new File(getTempFileDirectory(curDownload),
+                curDownload.targetFileUri.getLastPathSegment() + "." + System.currentTimeMillis())).toString());
+
+        if (activeDownloads.putIfAbsent(curDownload.getUriString(), curDownload) != null) {
+            return false;
+        }
+        METRICS.started.incrementAndGet();
+
+        if (curDownload.usesHttpEngine()) {
+            resumeFromJournal(curDownload);
+        }
+        return true;
+    }
+
+    /**
+     * Continues into the temporary file of a previous attempt when the journal has a checkpoint for it.
+     */
+    private void resumeFromJournal(Download curDownload) {
+        DownloadJournal.Entry entry = journal.get(curDownload.getUriString());
+        if (entry == null) {
+            return;
+        }
+
+        File tempFile = new File(entry.getTempFilePath());
+        if (entry.getTargetFileUri().equals(curDownload.getTargetFileUri().toString()) && tempFile.exists()) {
+            curDownload.setTempFileUri(Uri.fromFile(tempFile).toString());
+            curDownload.setCheckpoint(entry.getCheckpoint());
+            return;
+        }
+
+        // the data cannot be used for this download
+        journal.remove(entry.getUri());
+        journal.flush();
+        deleteFileIfExists(Uri.fromFile(tempFile));
+    }
+
+    /**
+     * Downloads go to the external cache directory, unless directToTarget is requested and DownloadManager is able
+     * to write next to the target file. Then the temporary file is a sibling of the target and finalization is a
+     * rename on the same file system.
+     */
+    private File getTempFileDirectory(Download curDownload) {
+        File cacheDir = cordova.getContext().getExternalCacheDir();
+        if (!curDownload.isDirectToTarget()) {
+            return cacheDir;
+        }
+
+        File targetDir = new File(curDownload.getTargetFileUri().getPath()).getParentFile();
+        return targetDir != null && isWritableByDownloadManager(targetDir) ? targetDir : cacheDir;
+    }
+
+    /**
+     * DownloadManager writes to the app-specific external directories without any additional permission.
+     */
+    private boolean isWritableByDownloadManager(File dir) {
+        Context context = cordova.getContext();
+        List<File> roots = new ArrayList<>();
+        Collections.addAll(roots, context.getExternalFilesDirs(null));
+        Collections.addAll(roots, context.getExternalCacheDirs());
+
+        try {
+            String path = dir.getCanonicalPath();
+            for (File root : roots) {
+                if (root == null) {
+                    continue;
+                }
+                String rootPath = root.getCanonicalPath();
+                if (path.equals(rootPath) || path.startsWith(rootPath + File.separator)) {
+                    return dir.isDirectory() && dir.canWrite();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot resolve download directory " + dir, e);
+        }
+        return false;
+    }
+
+    private void startDownloads(List<Download> downloads) {
+        List<Download> notCached = new ArrayList<>();
+        for (Download curDownload : downloads) {
+            if (!curDownload.isCacheable() || !serveFromCache(curDownload)) {
+                notCached.add(curDownload);
+            }
+        }
+        downloads = notCached;
+
+        // attempt to attach to active download for these files (download started and we close/open the app)
+        List<Download> attached = attachToExistingDownloads(downloads);
+
+        List<Download> queued = new ArrayList<>();
+        synchronized (this) {
+            for (Download curDownload : downloads) {
+                if (attached.contains(curDownload)) {
+                    // already handed to DownloadManager, so it takes a slot regardless of the limits
+                    markRunning(curDownload);
+                } else {
+                    enqueue(curDownload);
+                    queued.add(curDownload);
+                }
+            }
+        }
+
+        for (Download curDownload : attached) {
+            startProgressTracking(curDownload);
+        }
+        for (Download curDownload : queued) {
+            curDownload.reportMessage("Download queued");
+        }
+
+        scheduleDownloads();
+    }
+
+    /**
+     * Starts queued downloads in priority order while there are free slots.
+     */
+    private void scheduleDownloads() {
+        List<Download> downloadsToStart = new ArrayList<>();
+        List<Download> downloadsToAdmit = new ArrayList<>();
+        DeviceConditions conditions = null;
+        synchronized (this) {
+            // downloads being admitted will take a slot, unless they keep waiting for space
+            int admitting = 0;
+            Iterator<Download> it = queuedDownloads.iterator();
+            while (runningDownloads + admitting < maxConcurrentDownloads && it.hasNext()) {
+                Download curDownload = it.next();
+                if (curDownload.isHeld() || getRunningDownloadsForHost(curDownload.getHost()) >= maxDownloadsPerHost) {
+                    continue;
+                }
+                if (curDownload.hasPolicy()) {
+                    if (conditions == null) {
+                        conditions = getDeviceConditions();
+                    }
+                    // waits in the queue instead of taking a slot, see onConditionsChanged
+                    if (!curDownload.isAllowed(conditions)) {
+                        continue;
+                    }
+                }
+                if (curDownload.needsAdmission()) {
+                    if (!curDownload.isAdmitting()) {
+                        curDownload.setAdmitting(true);
+                        downloadsToAdmit.add(curDownload);
+                    }
+                    if (!curDownload.isWaitingForSpace()) {
+                        admitting++;
+                    }
+                    continue;
+                }
+                it.remove();
+                if (curDownload.getState() != State.QUEUED) {
+                    // finished while queued, cleanUp removes it as well
+                    continue;
+                }
+                markRunning(curDownload);
+                downloadsToStart.add(curDownload);
+            }
+        }
+
+        for (final Download curDownload : downloadsToAdmit) {
+            // may ask the server for the size, so admissions run in parallel and off the start path
+            cordova.getThreadPool().execute(() -> admit(curDownload));
+        }
+        for (Download curDownload : downloadsToStart) {
+            startDownload(curDownload);
+        }
+    }
+
+    /**
+     * Learns the size of a queued download which asks for admission control and reserves the space it needs. An
+     * admitted download is started by the next scheduleDownloads, one which does not fit fails or keeps waiting.
+     */
+    private void admit(Download curDownload) {
+        probeSize(curDownload);
+        boolean fits;
+        synchronized (admissionLock) {
+            fits = reserveSpace(curDownload);
+        }
+
+        boolean wasWaiting;
+        synchronized (this) {
+            curDownload.setAdmitting(false);
+            if (activeDownloads.get(curDownload.getUriString()) != curDownload) {
+                // cleaned up meanwhile
+                releaseSpace(curDownload);
+                return;
+            }
+            wasWaiting = curDownload.isWaitingForSpace();
+            if (fits) {
+                curDownload.setAdmitted(true);
+                curDownload.setWaitingForSpace(false);
+            } else if (RESERVE_SPACE_WAIT.equals(curDownload.getReserveSpace())) {
+                // admitted once a finished download releases its reservation
+                curDownload.setWaitingForSpace(true);
+            }
+        }
+
+        if (fits) {
+            scheduleDownloads();
+        } else if (RESERVE_SPACE_WAIT.equals(curDownload.getReserveSpace())) {
+            if (!wasWaiting) {
+                curDownload.reportMessage("Download waiting for free space");
+            }
+        } else {
+            cleanUp(curDownload, false);
+            curDownload.reportError(DownloadManager.ERROR_INSUFFICIENT_SPACE);
+        }
+    }
+
+    /**
+     * Learns the size of a download which asks for admission control, unless its options tell it.
+     */
+    private void probeSize(Download curDownload) {
+        if (curDownload.getExpectedSize() >= 0) {
+            return;
+        }
+        try {
+            curDownload.setExpectedSize(HttpDownloadEngine.probeSize(curDownload.getUriString(),
+                    getRequestHeaders(curDownload)));
+        } catch (IOException e) {
+            // admitted without a reservation, the download itself reports network failures
+            Log.w(TAG, "Cannot determine the size of " + curDownload.getUriString(), e);
+            curDownload.setExpectedSize(0);
+        }
+    }
+
+    /**
+     * Reserves the space the download needs on the volume of its temporary file and, when the file has to be
+     * copied to another volume, on the volume of its target. The part of other reservations which is not written yet
+     * counts as used, the system is asked to free cached data when that is needed. Called with admissionLock held.
+     *
+     * @return false when the download does not fit, true when it fits or its size is unknown
+     */
+    private boolean reserveSpace(Download curDownload) {
+        long size = curDownload.getExpectedSize();
+        if (size <= 0) {
+            return true;
+        }
+
+        File tempFile = new File(curDownload.getTempFileUri().getPath());
+        File tempDir = tempFile.getParentFile();
+        File targetDir = new File(curDownload.getTargetFileUri().getPath()).getParentFile();
+        if (tempDir == null || targetDir == null) {
+            return true;
+        }
+
+        try {
+            long tempVolume = Os.stat(tempDir.getPath()).st_dev;
+            long targetVolume = Os.stat(targetDir.getPath()).st_dev;
+            // a resumed download already has part of its file on disk
+            long existingBytes = tempFile.exists() ? tempFile.length() : 0;
+            long tempBytes = Math.max(0, size - existingBytes);
+            // on the same volume the file is renamed into place
+            long targetBytes = tempVolume != targetVolume ? size : 0;
+            if (!allocateSpace(tempDir, tempVolume, tempBytes)
+                    || !allocateSpace(targetDir, targetVolume, targetBytes)) {
+                return false;
+            }
+
+            synchronized (this) {
+                curDownload.setReservation(tempVolume, tempBytes, existingBytes, targetVolume, targetBytes);
+                if (curDownload.isSpaceReserved()) {
+                    reservingDownloads.add(curDownload);
+                }
+            }
+            return true;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Cannot determine the volume of " + curDownload.getTargetFileUri(), e);
+            return true;
+        }
+    }
+
+    private boolean allocateSpace(File dir, long volume, long bytes) {
+        if (bytes == 0) {
+            return true;
+        }
+        long needed = bytes + getReservedSpace(volume);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                StorageManager storageManager =
+                        cordova.getActivity().getApplicationContext().getSystemService(StorageManager.class);
+                UUID uuid = storageManager.getUuidForPath(dir);
+                if (storageManager.getAllocatableBytes(uuid) < needed) {
+                    return false;
+                }
+                // clears cached data of other apps if the free space alone is not enough, may take a while
+                storageManager.allocateBytes(uuid, needed);
+                return true;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot allocate " + needed + " bytes for " + dir, e);
+            return false;
+        }
+        return dir.getUsableSpace() >= needed;
+    }
+
+    /**
+     * @return the bytes other downloads reserved on the volume and did not write yet
+     */
+    private synchronized long getReservedSpace(long volume) {
+        long reserved = 0;
+        for (Download curDownload : reservingDownloads) {
+            reserved += curDownload.getOutstandingBytes(volume);
+        }
+        return reserved;
+    }
+
+    /**
+     * @return whether the download held a reservation
+     */
+    private boolean releaseSpace(Download curDownload) {
+        curDownload.setReservation(0, 0, 0, 0, 0);
+        return reservingDownloads.remove(curDownload);
+    }
+
+    private DeviceConditions getDeviceConditions() {
+        return DeviceConditions.read(cordova.getActivity().getApplicationContext());
+    }
+
+    /**
+     * Applies the speed limit for the current network, suspends in-process downloads whose policy no longer allows
+     * them to run and starts the ones which are allowed now.
+     */
+    private void onConditionsChanged() {
+        DeviceConditions conditions = getDeviceConditions();
+        updateSpeedLimit(conditions);
+
+        List<Download> downloadsToSuspend = new ArrayList<>();
+        synchronized (this) {
+            for (Download curDownload : activeDownloads.values()) {
+                // DownloadManager enforces the policies of its downloads itself
+                if (curDownload.isRunning() && curDownload.getTransfer() != null && curDownload.hasPolicy()
+                        && !curDownload.isAllowed(conditions)) {
+                    downloadsToSuspend.add(curDownload);
+                }
+            }
+        }
+        for (Download curDownload : downloadsToSuspend) {
+            suspend(curDownload);
+        }
+
+        scheduleDownloads();
+    }
+
+    private void updateSpeedLimit(DeviceConditions conditions) {
+        long limit;
+        synchronized (this) {
+            limit = maxBytesPerSecond;
+            if (maxBytesPerSecondMetered > 0 && conditions.isMetered()) {
+                limit = limit > 0 ? Math.min(limit, maxBytesPerSecondMetered) : maxBytesPerSecondMetered;
+            }
+        }
+        httpEngine.setMaxBytesPerSecond(limit);
+    }
+
+    /**
+     * Stops the transfer of a running in-process download and queues it again, it continues from its checkpoint.
+     */
+    private void suspend(Download curDownload) {
+        synchronized (this) {
+            if (activeDownloads.get(curDownload.getUriString()) != curDownload || curDownload.getTransfer() == null) {
+                return;
+            }
+            if (!curDownload.transition(State.RUNNING, State.QUEUED)) {
+                // already finalizing
+                return;
+            }
+            saveCheckpoint(curDownload);
+            stopProgressTracking(curDownload);
+            HttpDownloadEngine.Transfer transfer = curDownload.getTransfer();
+            curDownload.setCheckpoint(transfer.getCheckpoint());
+            curDownload.setTransfer(null);
+            transfer.cancel();
+            releaseRunningSlot(curDownload);
+            enqueue(curDownload);
+        }
+        journal.flush();
+        curDownload.reportMessage("Download waiting for network or power conditions");
+    }
+
+    private int getRunningDownloadsForHost(String host) {
+        Integer count = runningDownloadsPerHost.get(host);
+        return count != null ? count : 0;
+    }
+
+    private synchronized void enqueue(Download curDownload) {
+        curDownload.setSequence(queueSequence++);
+        curDownload.setQueuedAt(System.currentTimeMillis());
+        queuedDownloads.add(curDownload);
+    }
+
+    private void markRunning(Download curDownload) {
+        curDownload.transition(State.QUEUED, State.RUNNING);
+        curDownload.setStartedAt(System.currentTimeMillis());
+        curDownload.setRunning(true);
+        runningDownloads++;
+        runningDownloadsPerHost.put(curDownload.getHost(), getRunningDownloadsForHost(curDownload.getHost()) + 1);
+    }
+
+    private void releaseRunningSlot(Download curDownload) {
+        if (!curDownload.isRunning()) {
+            return;
+        }
+        curDownload.setRunning(false);
+        runningDownloads--;
+        int count = getRunningDownloadsForHost(curDownload.getHost()) - 1;
+        if (count > 0) {
+            runningDownloadsPerHost.put(curDownload.getHost(), count);
+        } else {
+            runningDownloadsPerHost.remove(curDownload.getHost());
+        }
+    }
+
+    private void startDownload(Download curDownload) {
+        if (curDownload.isCanceled()) {
+            // stopped while being taken from the queue
+            cleanUp(curDownload, true);
+            curDownload.reportError(ERROR_CANCELED);
+            return;
+        }
+
+        if (curDownload.usesHttpEngine()) {
+            startHttpDownload(curDownload);
+            return;
+        }
+
+        Uri source = Uri.parse(curDownload.getUriString());
+        try {
+            // make sure file does not exist, in other case DownloadManager will fail
+            deleteFileIfExists(curDownload.getTempFileUri());
+
+            DownloadManager mgr = getDownloadManager();
+            DownloadManager.Request request = new DownloadManager.Request(source);
+            request.setTitle(curDownload.getNotificationTitle());
+            request.setVisibleInDownloadsUi(false);
+
+            for (Map<String, String> header : curDownload.getHeaders()) {
+                request.addRequestHeader(header.get("Key"), header.get("Value"));
+            }
+
+            // Use the cookie from the webview, so the session cookie is shared                
+            request.addRequestHeader("Cookie", getCookie(curDownload));
+
+            // hide notification. Not compatible with current android api.
+            request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_HIDDEN);
+
+            request.setDestinationUri(curDownload.getTempFileUri());
+            curDownload.applyPolicy(request);
+
+            long downloadId = mgr.enqueue(request);
+            if (!trackEnqueued(curDownload, downloadId)) {
+                // stopped meanwhile, the cancellation was already reported
+                mgr.remove(downloadId);
+            }
+        } catch (Exception ex) {
+            cleanUp(curDownload, true);
+            curDownload.reportError(ex.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the DownloadManager id of a download and starts tracking its progress, unless the download was
+     * stopped while it was being enqueued. Under the plugin lock, so cancel either sees the id or the id is never
+     * published; a published id of a stopped download could be attached to by the next start of the same uri.
+     *
+     * @return false when the download was stopped
+     */
+    private synchronized boolean trackEnqueued(Download curDownload, long downloadId) {
+        if (curDownload.isCanceled() || activeDownloads.get(curDownload.getUriString()) != curDownload) {
+            return false;
+        }
+        curDownload.setDownloadId(downloadId);
+        existingDownloads.add(downloadId, curDownload.getUriString(), curDownload.getTempFileUri().toString());
+        startProgressTracking(curDownload);
+        return true;
+    }
+
+    /**
+     * Stops a transfer which was canceled and cleaned up while it was being started, before cleanUp could see it.
+     */
+    private void abortIfCleanedUp(Download curDownload) {
+        if (!curDownload.isCanceled() || activeDownloads.get(curDownload.getUriString()) == curDownload) {
+            return;
+        }
+        stopProgressTracking(curDownload);
+        if (curDownload.getTransfer() != null) {
+            // canceled downloads do not keep their data
+            curDownload.getTransfer().discard();
+            deleteFileIfExists(curDownload.getTempFileUri());
+        }
+    }
+
+    private String getCookie(Download curDownload) {
+        String cookie = this.webView.getCookieManager().getCookie(curDownload.getUriString());
+        if (cookie == null || cookie.isEmpty()) {
+            cookie = "randomCookie=" + UUID.randomUUID().toString();
+        }
+        return cookie;
+    }
+
+    private Map<String, String> getRequestHeaders(Download curDownload) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map<String, String> header : curDownload.getHeaders()) {
+            headers.put(header.get("Key"), header.get("Value"));
+        }
+        headers.put("Cookie", getCookie(curDownload));
+        return headers;
+    }
+
+    /**
+     * Completes the download with the cached copy of its uri when it is fresh, or still current according to the
+     * server.
+     */
+    private boolean serveFromCache(Download curDownload) {
+        // a member of an atomic batch gets the cached content as its temporary file and waits for the batch
+        File targetFile = new File((curDownload.isAtomic()
+                ? curDownload.getTempFileUri() : curDownload.getTargetFileUri()).getPath());
+        String expectedHash = curDownload.getExpectedHash();
+        if (expectedHash != null) {
+            // content with the expected hash is correct no matter which uri it was downloaded from
+            if (downloadCache.copyTo(expectedHash, targetFile)) {
+                completeFromCache(curDownload);
+                return true;
+            }
+            // an entry of this uri with the expected hash refers to the same content, any other one is wrong
+            return false;
+        }
+
+        DownloadCache.Entry entry = downloadCache.get(curDownload.getUriString());
+        if (entry == null) {
+            return false;
+        }
+        if (!entry.isFresh(curDownload.getCacheMaxAge())
+                && !(entry.canRevalidate() && downloadCache.revalidate(entry, getRequestHeaders(curDownload)))) {
+            return false;
+        }
+        if (!downloadCache.copyTo(entry, targetFile)) {
+            return false;
+        }
+
+        completeFromCache(curDownload);
+        return true;
+    }
+
+    private void completeFromCache(Download curDownload) {
+        METRICS.cacheHits.incrementAndGet();
+        if (curDownload.isAtomic()) {
+            if (curDownload.transition(State.QUEUED, State.FINALIZING)) {
+                stage(curDownload);
+            }
+            return;
+        }
+        cleanUp(curDownload, false);
+        curDownload.reportSuccess();
+    }
+
+    /**
+     * Copies a reported download into the cache on the thread pool. The cache hashes the content while it copies it,
+     * unless a digest was verified already.
+     */
+    private void storeInCache(Download curDownload, File file) {
+        HttpDownloadEngine.Checkpoint checkpoint = curDownload.getTransfer() != null
+                ? curDownload.getTransfer().getCheckpoint() : null;
+        final String uri = curDownload.getUriString();
+        final String hash = curDownload.getContentHash();
+        final String etag = checkpoint != null ? checkpoint.getEtag() : null;
+        final String lastModified = checkpoint != null ? checkpoint.getLastModified() : null;
+        cordova.getThreadPool().execute(() -> downloadCache.put(uri, file, hash, etag, lastModified));
+    }
+
+    private void startHttpDownload(final Download curDownload) {
+        Map<String, String> headers = getRequestHeaders(curDownload);
+
+        if (curDownload.getCheckpoint() == null) {
+            // make sure stale data from a previous attempt is not reused
+            deleteFileIfExists(curDownload.getTempFileUri());
+        }
+
+        curDownload.setTransfer(httpEngine.start(curDownload.getUriString(),
+                new File(curDownload.getTempFileUri().getPath()), headers, curDownload.getSegments(),
+                curDownload.getCheckpoint(), new HttpDownloadEngine.Listener() {
+                    @Override
+                    public void onComplete(HttpDownloadEngine.Transfer transfer) {
+                        stopProgressTracking(curDownload);
+                        curDownload.setBytes(transfer.getBytesReceived(), transfer.getBytesReceived());
+                        handleSuccessDownload(curDownload);
+                    }
+
+                    @Override
+                    public void onError(HttpDownloadEngine.Transfer transfer, int httpStatus, Exception cause) {
+                        if (cause != null) {
+                            Log.e(TAG, "Error occurred while downloading " + curDownload.getUriString(), cause);
+                        }
+                        int reason = httpStatus > 0 ? httpStatus : DownloadManager.ERROR_HTTP_DATA_ERROR;
+                        // network and server failures are worth resuming, other responses mean the data is useless
+                        boolean isResumable = (httpStatus == 0 || httpStatus >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+                                && saveCheckpoint(curDownload);
+                        journal.flush();
+                        if (retryLater(curDownload, reason, isResumable)) {
+                            return;
+                        }
+                        cleanUp(curDownload, true, isResumable);
+                        curDownload.reportError(reason);
+                    }
+                }));
+
+        startProgressTracking(curDownload);
+        abortIfCleanedUp(curDownload);
+    }
+
+    private synchronized void startProgressTracking(final Download curDownload) {
+        if (curDownload.usesHttpEngine()) {
+            if (!trackedTransfers.contains(curDownload)) {
+                trackedTransfers.add(curDownload);
+            }
+        } else if (indexOfTracked(curDownload.getDownloadId()) >= 0) {
+            // already started
+            return;
+        } else {
+            trackedDownloads.add(curDownload);
+            trackedDownloadsVersion++;
+        }
+
+        updateProgressTimer();
+    }
+
+    private synchronized void stopProgressTracking(Download curDownload) {
+        int i;
+        if (curDownload.usesHttpEngine()) {
+            trackedTransfers.remove(curDownload);
+        } else if ((i = indexOfTracked(curDownload.getDownloadId())) >= 0) {
+            trackedDownloads.remove(i);
+            trackedDownloadsVersion++;
+        }
+
+        updateProgressTimer();
+    }
+
+    /**
+     * Starts, reschedules or stops the shared timer to match what is tracked. In-process transfers do not notify the
+     * DownloadManager observer, so while any of them runs the timer polls at the regular interval.
+     */
+    private synchronized void updateProgressTimer() {
+        long period;
+        if (trackedDownloads.isEmpty() && trackedTransfers.isEmpty()) {
+            period = 0;
+        } else if (isEventDriven && trackedTransfers.isEmpty()) {
+            period = DOWNLOAD_PROGRESS_FALLBACK_TIMEOUT;
+        } else {
+            period = DOWNLOAD_PROGRESS_UPDATE_TIMEOUT;
+        }
+        if (progressTimer != null && period == progressTimerPeriod) {
+            return;
+        }
+
+        if (progressTimer != null) {
+            progressTimer.cancel();
+            progressTimer = null;
+            isProgressUpdateScheduled = false;
+        }
+        progressTimerPeriod = period;
+        if (period == 0) {
+            return;
+        }
+        progressTimer = new Timer("BackgroundDownloadProgress");
+        progressTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                updateProgress();
+            }
+        }, DOWNLOAD_PROGRESS_UPDATE_TIMEOUT, period);
+    }
+
+    private synchronized boolean isTracked(long downloadId) {
+        return indexOfTracked(downloadId) >= 0;
+    }
+
+    private int indexOfTracked(long downloadId) {
+        for (int i = 0; i < trackedDownloads.size(); i++) {
+            if (trackedDownloads.get(i).getDownloadId() == downloadId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Runs an extra progress update on the shared timer thread, so it never overlaps with a regular tick.
+     */
+    private synchronized void requestProgressUpdate(long delay) {
+        if (progressTimer == null) {
+            return;
+        }
+        progressTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                updateProgress();
+            }
+        }, delay);
+    }
+
+    /**
+     * DownloadManager notifies about every chunk written, so progress changes are coalesced to at most one update
+     * per DOWNLOAD_PROGRESS_UPDATE_TIMEOUT.
+     */
+    private synchronized void requestThrottledProgressUpdate() {
+        if (progressTimer == null || isProgressUpdateScheduled) {
+            return;
+        }
+        isProgressUpdateScheduled = true;
+        long delay = Math.max(0, lastProgressUpdateTime + DOWNLOAD_PROGRESS_UPDATE_TIMEOUT - System.currentTimeMillis());
+        progressTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (BackgroundDownload.this) {
+                    isProgressUpdateScheduled = false;
+                }
+                updateProgress();
+            }
+        }, delay);
+    }
+
+    private void updateProgress() {
+        // a replaced timer may still finish its last tick, the lock keeps it away from the reused buffers
+        synchronized (progressTickLock) {
+            int queryVersion;
+            synchronized (this) {
+                snapshotTrackedDownloads();
+                for (int i = 0; i < trackedTransfers.size(); i++) {
+                    tickTransfers.add(trackedTransfers.get(i));
+                }
+                queryVersion = trackedDownloadsVersion;
+                lastProgressUpdateTime = System.currentTimeMillis();
+            }
+
+            if (tickDownloadCount > 0) {
+                updateDownloadManagerProgress(queryVersion);
+            }
+            for (int i = 0; i < tickTransfers.size(); i++) {
+                updateTransferProgress(tickTransfers.get(i));
+            }
+            if (!tickTransfers.isEmpty()) {
+                journal.flush();
+            }
+
+            // do not keep finished downloads reachable until the next tick
+            Arrays.fill(tickDownloads, 0, tickDownloadCount, null);
+            tickTransfers.clear();
+        }
+
+        flushBatches();
+        flushAggregateProgress();
+    }
+
+    /**
+     * @return the estimated seconds until all bytes are received, -1 if unknown
+     */
+    static long getEta(long bytesReceived, long totalBytesToReceive, long throughput) {
+        if (totalBytesToReceive <= 0 || throughput <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, totalBytesToReceive - bytesReceived) / (double) throughput);
+    }
+
+    private void subscribeProgress(CallbackContext callbackContext) {
+        synchronized (this) {
+            aggregateProgressCallback = callbackContext;
+            aggregateReportedBytes = -1;
+            aggregateReportedCount = -1;
+        }
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void unsubscribeProgress(CallbackContext callbackContext) {
+        CallbackContext subscriber;
+        synchronized (this) {
+            subscriber = aggregateProgressCallback;
+            aggregateProgressCallback = null;
+        }
+        if (subscriber != null) {
+            subscriber.success();
+        }
+        callbackContext.success();
+    }
+
+    /**
+     * @return the metrics collected since the plugin was loaded, with the metrics of each active download
+     */
+    private JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = METRICS.toJson();
+        JSONArray downloads = new JSONArray();
+        for (Download curDownload : activeDownloads.values()) {
+            downloads.put(curDownload.getMetrics());
+        }
+        metrics.put("downloads", downloads);
+        return metrics;
+    }
+
+    private void subscribeMetrics(JSONArray args, CallbackContext callbackContext) {
+        long interval = Math.max(DOWNLOAD_PROGRESS_UPDATE_TIMEOUT, args.optLong(0, DEFAULT_METRICS_INTERVAL));
+        synchronized (this) {
+            metricsCallback = callbackContext;
+            if (metricsTimer != null) {
+                metricsTimer.cancel();
+            }
+            metricsTimer = new Timer("BackgroundDownloadMetrics");
+            metricsTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    flushMetrics();
+                }
+            }, interval, interval);
+        }
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void unsubscribeMetrics(CallbackContext callbackContext) {
+        CallbackContext subscriber;
+        synchronized (this) {
+            subscriber = metricsCallback;
+            metricsCallback = null;
+            if (metricsTimer != null) {
+                metricsTimer.cancel();
+                metricsTimer = null;
+            }
+        }
+        if (subscriber != null) {
+            subscriber.success();
+        }
+        callbackContext.success();
+    }
+
+    private void flushMetrics() {
+        CallbackContext subscriber;
+        synchronized (this) {
+            subscriber = metricsCallback;
+        }
+        if (subscriber == null) {
+            return;
+        }
+        try {
+            PluginResult metricsUpdate = new PluginResult(PluginResult.Status.OK, getMetrics());
+            metricsUpdate.setKeepCallback(true);
+            METRICS.bridgeEvents.incrementAndGet();
+            subscriber.sendPluginResult(metricsUpdate);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the progress summed over all active downloads to the subscriber, if it changed since the previous report.
+     */
+    private void flushAggregateProgress() {
+        CallbackContext subscriber;
+        long bytesReceived = 0;
+        long totalBytesToReceive = 0;
+        long throughput = 0;
+        int running = 0;
+        int queued;
+        int count;
+        synchronized (this) {
+            subscriber = aggregateProgressCallback;
+            if (subscriber == null) {
+                return;
+            }
+            for (Download curDownload : activeDownloads.values()) {
+                bytesReceived += curDownload.getBytesReceived();
+                totalBytesToReceive += curDownload.getTotalBytesToReceive();
+                throughput += curDownload.getThroughput();
+                if (curDownload.isRunning()) {
+                    running++;
+                }
+            }
+            queued = queuedDownloads.size();
+            count = activeDownloads.size();
+            if (bytesReceived == aggregateReportedBytes && count == aggregateReportedCount) {
+                return;
+            }
+            aggregateReportedBytes = bytesReceived;
+            aggregateReportedCount = count;
+        }
+
+        try {
+            JSONObject progress = new JSONObject();
+            progress.put("bytesReceived", bytesReceived);
+            progress.put("totalBytesToReceive", totalBytesToReceive);
+            progress.put("throughput", throughput);
+            progress.put("eta", getEta(bytesReceived, totalBytesToReceive, throughput));
+            progress.put("downloads", count);
+            progress.put("running", running);
+            progress.put("queued", queued);
+            PluginResult progressUpdate = new PluginResult(PluginResult.Status.OK, progress);
+            progressUpdate.setKeepCallback(true);
+            METRICS.bridgeEvents.incrementAndGet();
+            subscriber.sendPluginResult(progressUpdate);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copies trackedDownloads into the reused tick arrays, growing them when needed.
+     */
+    private void snapshotTrackedDownloads() {
+        int count = trackedDownloads.size();
+        if (tickDownloads.length < count) {
+            int capacity = Math.max(count, tickDownloads.length * 2);
+            tickDownloads = new Download[capacity];
+            tickIds = new long[capacity];
+            tickSeen = new boolean[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            Download curDownload = trackedDownloads.get(i);
+            tickIds[i] = curDownload.getDownloadId();
+            tickDownloads[i] = curDownload;
+            tickSeen[i] = false;
+        }
+        tickDownloadCount = count;
+    }
+
+    /**
+     * Polls the downloads with a single DownloadManager query and dispatches the result rows to the corresponding
+     * downloads.
+     *
+     * @param queryVersion the trackedDownloadsVersion the tick arrays were copied at, see snapshotTrackedDownloads
+     */
+    private void updateDownloadManagerProgress(int queryVersion) {
+        if (progressQuery == null || progressQueryVersion != queryVersion) {
+            progressQuery = new DownloadManager.Query();
+            progressQuery.setFilterById(Arrays.copyOf(tickIds, tickDownloadCount));
+            progressQueryVersion = queryVersion;
+        }
+
+        try (Cursor cursor = getDownloadManager().query(progressQuery)) {
+            if (idxId < 0) {
+                idxStatus = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS);
+                idxReason = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_REASON);
+                idxBytesDownloaded = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR);
+                idxBytesTotal = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES);
+                idxId = cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_ID);
+            }
+
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                int i = indexOfTickId(cursor.getLong(idxId));
+                if (i < 0 || tickSeen[i]) {
+                    continue;
+                }
+                tickSeen[i] = true;
+                try {
+                    updateProgress(tickDownloads[i], cursor.getInt(idxStatus), cursor.getInt(idxReason),
+                            cursor.getLong(idxBytesDownloaded), cursor.getLong(idxBytesTotal));
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (Exception e) {
+            // keep the shared timer alive, next tick will retry
+            Log.e(TAG, "Error occurred while querying download progress", e);
+            return;
+        }
+
+        // downloads that disappeared from DownloadManager were removed by the user or the system
+        for (int i = 0; i < tickDownloadCount; i++) {
+            if (!tickSeen[i]) {
+                cleanUp(tickDownloads[i], true);
+                tickDownloads[i].reportError(ERROR_CANCELED);
+            }
         }
+    }
 
-        public void reportError(String msg) {
-            this.callbackContext.error(msg);
+    /**
+     * A linear scan, a few dozen downloads are tracked at most and this avoids boxing the id.
+     */
+    private int indexOfTickId(long id) {
+        for (int i = 0; i < tickDownloadCount; i++) {
+            if (tickIds[i] == id) {
+                return i;
+            }
         }
+        return -1;
     }
 
-    private final HashMap<String, Download> activeDownloads = new HashMap<>();
-
-    private DownloadManager getDownloadManager() {
-        return (DownloadManager) cordova.getActivity().getSystemService(Context.DOWNLOAD_SERVICE);
+    /**
+     * Completion and failures of the in-process engine are reported by its listener, only progress is polled.
+     */
+    private void updateTransferProgress(Download curDownload) {
+        HttpDownloadEngine.Transfer transfer = curDownload.getTransfer();
+        if (transfer == null) {
+            return;
+        }
+        saveCheckpoint(curDownload);
+        try {
+            updateProgress(curDownload, DownloadManager.STATUS_RUNNING, 0, transfer.getBytesReceived(),
+                    transfer.getTotalBytes());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
     }
 
-    @Override
-    public boolean execute(String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
-        try {
-            if (action.equals("startAsync")) {
-                cordova.getThreadPool().execute(() -> {
-                    try {
-                        startAsync(args, callbackContext);
-                    } catch (JSONException ex) {
-                        callbackContext.error(ex.getMessage());
-                    }
-                });
+    /**
+     * Records the progress of the in-process engine in the journal, it is written on the next flush.
+     *
+     * @return whether the download can be resumed from the journal
+     */
+    private synchronized boolean saveCheckpoint(Download curDownload) {
+        HttpDownloadEngine.Transfer transfer = curDownload.getTransfer();
+        // a late progress tick must not bring back the entry of a finished download
+        if (transfer == null || transfer.isCanceled() || activeDownloads.get(curDownload.getUriString()) != curDownload) {
+            return false;
+        }
 
-                return true;
-            }
-            if (action.equals("stop")) {
-                stop(args, callbackContext);
-                return true;
-            }
-            return false; // invalid action
-        } catch (Exception ex) {
-            callbackContext.error(ex.getMessage());
+        HttpDownloadEngine.Checkpoint checkpoint = transfer.getCheckpoint();
+        if (checkpoint == null || checkpoint.getValidator() == null) {
+            return false;
         }
+
+        journal.put(new DownloadJournal.Entry(curDownload.getUriString(), curDownload.getTargetFileUri().toString(),
+                curDownload.getTempFileUri().getPath(), checkpoint));
         return true;
     }
 
-    private void startAsync(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        Download curDownload = Download.create(args, callbackContext);
-        curDownload.setTempFileUri(Uri.fromFile(new File(cordova.getContext().getExternalCacheDir().getPath(),
-                curDownload.targetFileUri.getLastPathSegment() + "." + System.currentTimeMillis())).toString());
-
-        if (activeDownloads.containsKey(curDownload.getUriString())) {
-            return;
+    /**
+     * Queues the failed download again after the delay of its retry policy.
+     *
+     * @param isResumable whether the in-process engine can continue from the data on disk
+     * @return false when the policy does not allow another attempt
+     */
+    private boolean retryLater(final Download curDownload, int reason, boolean isResumable) {
+        final int attempt = curDownload.getAttempt();
+        if (curDownload.isCanceled() || !curDownload.getRetryPolicy().shouldRetry(reason, attempt)) {
+            return false;
         }
+        long delay = curDownload.getRetryPolicy().getDelay(attempt);
 
-        activeDownloads.put(curDownload.getUriString(), curDownload);
-        Uri source = Uri.parse(curDownload.getUriString());
-        // Uri destination = Uri.parse(this.getTemporaryFilePath());
-
-        // attempt to attach to active download for this file (download started and we close/open the app)
-        if (!attachToExistingDownload(curDownload)) {
-            try {
-                // make sure file does not exist, in other case DownloadManager will fail
-                deleteFileIfExists(curDownload.getTempFileUri());
+        synchronized (this) {
+            if (activeDownloads.get(curDownload.getUriString()) != curDownload
+                    || !(curDownload.transition(State.RUNNING, State.QUEUED)
+                    || curDownload.transition(State.FINALIZING, State.QUEUED))) {
+                return false;
+            }
 
-                DownloadManager mgr = getDownloadManager();
-                DownloadManager.Request request = new DownloadManager.Request(source);
-                request.setTitle(curDownload.getNotificationTitle());
-                request.setVisibleInDownloadsUi(false);
+            stopProgressTracking(curDownload);
+            if (curDownload.getDownloadId() != DOWNLOAD_ID_UNDEFINED) {
+                // DownloadManager cannot continue a failed entry, the next attempt enqueues a new one
+                getDownloadManager().remove(curDownload.getDownloadId());
+                existingDownloads.remove(curDownload.getDownloadId());
+                curDownload.setDownloadId(DOWNLOAD_ID_UNDEFINED);
+            }
+            if (curDownload.getTransfer() != null) {
+                curDownload.setCheckpoint(isResumable ? curDownload.getTransfer().getCheckpoint() : null);
+                curDownload.setTransfer(null);
+            }
+            curDownload.setAttempt(attempt + 1);
+            releaseRunningSlot(curDownload);
+            METRICS.retries.incrementAndGet();
+            if (!isResumable) {
+                curDownload.addBytesWasted(curDownload.getBytesReceived());
+            }
+            curDownload.resetProgress(isResumable);
 
-                for (Map<String, String> header : curDownload.getHeaders()) {
-                    request.addRequestHeader(header.get("Key"), header.get("Value"));
+            if (retryTimer == null) {
+                retryTimer = new Timer("BackgroundDownloadRetry");
+            }
+            retryTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    synchronized (BackgroundDownload.this) {
+                        if (curDownload.isCanceled() || activeDownloads.get(curDownload.getUriString()) != curDownload) {
+                            return;
+                        }
+                        enqueue(curDownload);
+                    }
+                    scheduleDownloads();
                 }
+            }, delay);
+        }
 
-                // Use the cookie from the webview, so the session cookie is shared                
-                String cookie = this.webView.getCookieManager().getCookie(curDownload.getUriString());
-                if (cookie == null || cookie.isEmpty()) {
-                    cookie = "randomCookie=" + UUID.randomUUID().toString();
-                }
-                request.addRequestHeader("Cookie", cookie);
+        // the freed slot can be used while this download waits
+        cordova.getThreadPool().execute(this::scheduleDownloads);
 
-                // hide notification. Not compatible with current android api.
-                request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_HIDDEN);
+        try {
+            JSONObject progress = new JSONObject();
+            String reasonMsg = getUserFriendlyReason(reason);
+            progress.put("message", "Download failed with reason " + ("".equals(reasonMsg) ? reason : reasonMsg)
+                    + ", retrying in " + delay + " ms");
+            progress.put("attempt", attempt + 1);
+            progress.put("retryDelay", delay);
+            curDownload.reportProgress(progress);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
 
-                request.setDestinationUri(curDownload.getTempFileUri());
+    /**
+     * Called once the result of the batch was sent, a finished batch is neither flushed nor stopped anymore.
+     */
+    private synchronized void removeBatch(DownloadBatch batch) {
+        if (activeBatches.get(batch.getId()) == batch) {
+            activeBatches.remove(batch.getId());
+        }
+    }
 
-                curDownload.setDownloadId(mgr.enqueue(request));
-            } catch (Exception ex) {
-                cleanUp(curDownload, true);
-                callbackContext.error(ex.getMessage());
+    private void flushBatches() {
+        final List<DownloadBatch> batches;
+        synchronized (this) {
+            if (activeBatches.isEmpty()) {
+                // the usual case, checked first so a tick does not allocate
                 return;
             }
+            batches = new ArrayList<>(activeBatches.values());
         }
 
-        // custom logic to track file download progress
-        startProgressTracking(curDownload);
+        for (DownloadBatch batch : batches) {
+            try {
+                batch.flush();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
-    private void startProgressTracking(final Download curDownload) {
-        // already started
-        if (curDownload.getTimerProgressUpdate() != null) {
-            return;
+    private void updateProgress(final Download curDownload, int status, int reason, long bytesDownloaded,
+                                long bytesTotal) throws JSONException {
+        JSONObject progress;
+        switch (status) {
+            case DownloadManager.STATUS_FAILED:
+                if (retryLater(curDownload, reason, false)) {
+                    return;
+                }
+                cleanUp(curDownload, true);
+                curDownload.reportError(reason);
+                return;
+            case DownloadManager.STATUS_SUCCESSFUL:
+                // finalization may copy a large file, so keep it off the shared timer thread
+                stopProgressTracking(curDownload);
+                cordova.getThreadPool().execute(() -> handleSuccessDownload(curDownload));
+                return;
+            case DownloadManager.STATUS_RUNNING:
+                curDownload.setBytes(bytesDownloaded, bytesTotal);
+                curDownload.sampleThroughput(bytesDownloaded, System.currentTimeMillis());
+                if (!curDownload.shouldReportBytes(bytesDownloaded, bytesTotal)) {
+                    return;
+                }
+                curDownload.setReportedBytes(bytesDownloaded);
+                if (curDownload.getBatch() != null) {
+                    curDownload.getBatch().onProgress();
+                }
+                progress = curDownload.getTickProgress();
+                progress.put("bytesReceived", bytesDownloaded);
+                progress.put("totalBytesToReceive", bytesTotal);
+                progress.put("throughput", curDownload.getThroughput());
+                progress.put("eta", curDownload.getEta());
+                progress.put("attempt", curDownload.getAttempt());
+                break;
+            case DownloadManager.STATUS_PAUSED:
+                if (!curDownload.shouldReportStatus(status, reason)) {
+                    return;
+                }
+                curDownload.setReportedStatus(status, reason);
+                progress = new JSONObject();
+                progress.put("message", "Download paused with reason " + reason);
+                break;
+            case DownloadManager.STATUS_PENDING:
+                if (!curDownload.shouldReportStatus(status, reason)) {
+                    return;
+                }
+                curDownload.setReportedStatus(status, reason);
+                progress = new JSONObject();
+                progress.put("message", "Download pending with reason " + reason);
+                break;
+            default:
+                curDownload.reportError("Unknown download state " + status);
+                return;
         }
-        final DownloadManager mgr = getDownloadManager();
-
-        curDownload.setTimerProgressUpdate(new Timer());
-        curDownload.getTimerProgressUpdate().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                DownloadManager.Query q = new DownloadManager.Query();
-                q.setFilterById(curDownload.getDownloadId());
-                try (Cursor cursor = mgr.query(q)) {
-                    if (!cursor.moveToFirst()) {
-                        cleanUp(curDownload, true);
-                        curDownload.reportError(ERROR_CANCELED);
-                        return;
-                    }
 
-                    final int status = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
-                    final int reason = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_REASON));
-
-                    PluginResult progressUpdate;
-                    JSONObject obj;
-                    switch (status) {
-                        case DownloadManager.STATUS_FAILED:
-                            cleanUp(curDownload, true);
-                            curDownload.reportError(reason);
-                            return;
-                        case DownloadManager.STATUS_SUCCESSFUL:
-                            handleSuccessDownload(curDownload);
-                            return;
-                        case DownloadManager.STATUS_RUNNING:
-                            long bytesDownloaded = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-                            long bytesTotal = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-                            JSONObject jsonProgress = new JSONObject();
-                            jsonProgress.put("bytesReceived", bytesDownloaded);
-                            jsonProgress.put("totalBytesToReceive", bytesTotal);
-                            obj = new JSONObject();
-                            obj.put("progress", jsonProgress);
-                            break;
-                        case DownloadManager.STATUS_PAUSED:
-                            JSONObject pauseMessage = new JSONObject();
-                            pauseMessage.put("message", "Download paused with reason " + reason);
-                            obj = new JSONObject();
-                            obj.put("progress", pauseMessage);
-                            break;
-                        case DownloadManager.STATUS_PENDING:
-                            JSONObject pendingMessage = new JSONObject();
-                            pendingMessage.put("message", "Download pending with reason " + reason);
-                            obj = new JSONObject();
-                            obj.put("progress", pendingMessage);
-                            break;
-                        default:
-                            curDownload.reportError("Unknown download state " + status);
-                            return;
-                    }
+        curDownload.reportProgress(progress);
+    }
 
-                    progressUpdate = new PluginResult(PluginResult.Status.OK, obj);
-                    progressUpdate.setKeepCallback(true);
-                    curDownload.getCallbackContext().sendPluginResult(progressUpdate);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-        }, DOWNLOAD_PROGRESS_UPDATE_TIMEOUT, DOWNLOAD_PROGRESS_UPDATE_TIMEOUT);
+    private void cleanUp(Download curDownload, boolean shouldDeleteTargetFile) {
+        cleanUp(curDownload, shouldDeleteTargetFile, false);
     }
 
-    private synchronized void cleanUp(Download curDownload, boolean shouldDeleteTargetFile) {
+    /**
+     * @param shouldKeepTempFile keep the partial data and its journal entry, so the next attempt resumes
+     */
+    private synchronized void cleanUp(Download curDownload, boolean shouldDeleteTargetFile,
+                                      boolean shouldKeepTempFile) {
 
-        if (curDownload.getTimerProgressUpdate() != null) {
-            curDownload.getTimerProgressUpdate().cancel();
+        stopProgressTracking(curDownload);
+
+        if (curDownload.getTransfer() != null) {
+            if (shouldKeepTempFile) {
+                curDownload.getTransfer().cancel();
+            } else {
+                curDownload.getTransfer().discard();
+            }
         }
 
         if (curDownload.getDownloadId() != DOWNLOAD_ID_UNDEFINED) {
             getDownloadManager().remove(curDownload.getDownloadId());
+            existingDownloads.remove(curDownload.getDownloadId());
         }
 
-        activeDownloads.remove(curDownload.getUriString());
-
-        deleteFileIfExists(curDownload.getTempFileUri());
+        // a newer download of the same uri stays registered
+        activeDownloads.remove(curDownload.getUriString(), curDownload);
+        queuedDownloads.remove(curDownload);
+        boolean wasRunning = curDownload.isRunning();
+        releaseRunningSlot(curDownload);
+        // downloads waiting for space may fit now
+        boolean hadReservation = releaseSpace(curDownload);
+
+        if (!shouldKeepTempFile) {
+            deleteFileIfExists(curDownload.getTempFileUri());
+            if (curDownload.usesHttpEngine()) {
+                journal.remove(curDownload.getUriString());
+                journal.flush();
+            }
+        }
 
-        if (shouldDeleteTargetFile) {
+        // the targets of an atomic batch are only written by commitBatch
+        if (shouldDeleteTargetFile && !curDownload.isAtomic()) {
             deleteFileIfExists(curDownload.getTargetFileUri());
         }
+
+        if (wasRunning || hadReservation) {
+            // a slot became free, start the next queued download outside of this lock
+            cordova.getThreadPool().execute(this::scheduleDownloads);
+        }
+        if (progressTimer == null) {
+            // no tick follows to report the new totals, e.g. after the last download finished
+            cordova.getThreadPool().execute(this::flushAggregateProgress);
+        }
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -368,7 +2518,7 @@ public class BackgroundDownload extends CordovaPlugin {
         return targetFile.exists() && targetFile.delete();
     }
 
-    private static String getUserFriendlyReason(int reason) {
+    static String getUserFriendlyReason(int reason) {
         String failedReason = "";
         switch (reason) {
             case DownloadManager.ERROR_CANNOT_RESUME:
@@ -416,6 +2566,9 @@ public class BackgroundDownload extends CordovaPlugin {
             case ERROR_CANCELED:
                 failedReason = "CANCELED";
                 break;
+            case ERROR_CHECKSUM_MISMATCH:
+                failedReason = "CHECKSUM_MISMATCH";
+                break;
         }
 
         return failedReason;
@@ -423,60 +2576,228 @@ public class BackgroundDownload extends CordovaPlugin {
 
     private void stop(JSONArray args, CallbackContext callbackContext) throws JSONException {
 
-        Download curDownload = activeDownloads.get(args.get(0).toString());
-        if (curDownload == null) {
-            callbackContext.error("download request not found");
+        List<Download> downloads;
+        synchronized (this) {
+            String id = args.get(0).toString();
+            Download curDownload = activeDownloads.get(id);
+            DownloadBatch batch = activeBatches.get(id);
+            if (curDownload != null) {
+                downloads = Collections.singletonList(curDownload);
+            } else if (batch != null && !batch.isFinished()) {
+                downloads = batch.getMembers();
+            } else {
+                callbackContext.error("download request not found");
+                return;
+            }
+        }
+
+        for (Download curDownload : downloads) {
+            cancel(curDownload);
+        }
+        callbackContext.success();
+    }
+
+    private void cancel(Download curDownload) {
+        boolean wasQueued;
+        synchronized (this) {
+            if (curDownload.isCanceled() || activeDownloads.get(curDownload.getUriString()) != curDownload) {
+                return;
+            }
+            curDownload.cancel();
+            wasQueued = queuedDownloads.contains(curDownload);
+        }
+
+        if (curDownload.getState() == State.FINALIZING) {
+            // the finalizing thread checks the flag between its steps and reports the cancellation itself, tearing
+            // down here would delete the files it is verifying, moving or caching
             return;
         }
+        if (curDownload.getState() == State.STAGED) {
+            // complete and waiting for its batch, the target was not touched yet
+            cleanUp(curDownload, false);
+            curDownload.reportError(ERROR_CANCELED);
+            return;
+        }
+
+        if (wasQueued || curDownload.usesHttpEngine() || curDownload.getDownloadId() == DOWNLOAD_ID_UNDEFINED) {
+            // not handled by DownloadManager, so there is no progress tick to report the cancellation
+            cleanUp(curDownload, true);
+            curDownload.reportError(ERROR_CANCELED);
+        } else {
+            getDownloadManager().remove(curDownload.getDownloadId());
+        }
+    }
+
+    private void cancelBatch(DownloadBatch batch) {
+        for (Download curDownload : batch.getMembers()) {
+            cancel(curDownload);
+        }
+    }
+
+    private void setPriority(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        synchronized (this) {
+            Download curDownload = activeDownloads.get(args.get(0).toString());
+            if (curDownload == null) {
+                callbackContext.error("download request not found");
+                return;
+            }
 
-        curDownload.cancel();
-        getDownloadManager().remove(curDownload.getDownloadId());
+            // re-insert to keep the queue ordered
+            boolean wasQueued = queuedDownloads.remove(curDownload);
+            curDownload.setPriority(args.getInt(1));
+            if (wasQueued) {
+                queuedDownloads.add(curDownload);
+            }
+        }
         callbackContext.success();
     }
 
-    private boolean attachToExistingDownload(Download downloadItem) {
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterByStatus(DownloadManager.STATUS_PAUSED | DownloadManager.STATUS_PENDING | DownloadManager.STATUS_RUNNING | DownloadManager.STATUS_SUCCESSFUL);
+    private void setHeld(JSONArray args, CallbackContext callbackContext, boolean held) throws JSONException {
+        Download curDownload;
+        synchronized (this) {
+            curDownload = activeDownloads.get(args.get(0).toString());
+            if (curDownload == null) {
+                callbackContext.error("download request not found");
+                return;
+            }
+            if (!queuedDownloads.contains(curDownload)) {
+                callbackContext.error("only queued downloads can be paused or resumed");
+                return;
+            }
 
-        Cursor cur = getDownloadManager().query(query);
+            curDownload.setHeld(held);
+        }
+
+        if (held) {
+            curDownload.reportMessage("Download paused");
+        } else {
+            curDownload.reportMessage("Download queued");
+            scheduleDownloads();
+        }
+        callbackContext.success();
+    }
 
-        int idxId = cur.getColumnIndex(DownloadManager.COLUMN_ID);
-        int idxUri = cur.getColumnIndex(DownloadManager.COLUMN_URI);
-        int idxLocalUri = cur.getColumnIndex(DownloadManager.COLUMN_LOCAL_URI);
+    private void configure(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.getJSONObject(0);
+        synchronized (this) {
+            maxConcurrentDownloads = Math.max(1, options.optInt("maxConcurrentDownloads", maxConcurrentDownloads));
+            maxDownloadsPerHost = Math.max(1, options.optInt("maxDownloadsPerHost", maxDownloadsPerHost));
+        }
+        if (options.has("cacheSize")) {
+            downloadCache.setMaxSize(Math.max(0, options.getLong("cacheSize")));
+        }
+        if (options.has("maxBytesPerSecond") || options.has("maxBytesPerSecondMetered")) {
+            synchronized (this) {
+                maxBytesPerSecond = Math.max(0, options.optLong("maxBytesPerSecond", maxBytesPerSecond));
+                maxBytesPerSecondMetered =
+                        Math.max(0, options.optLong("maxBytesPerSecondMetered", maxBytesPerSecondMetered));
+            }
+            updateSpeedLimit(getDeviceConditions());
+        }
+        scheduleDownloads();
+        callbackContext.success();
+    }
 
-        final Pattern pattern = downloadItem.getUriMatcher() != null && !"".equals(downloadItem.getUriMatcher())
-                ? Pattern.compile(downloadItem.getUriMatcher()) : null;
+    /**
+     * Attaches the downloads to matching DownloadManager entries, see ExistingDownloadIndex.
+     *
+     * @return the downloads attached to an existing entry
+     */
+    private List<Download> attachToExistingDownloads(List<Download> downloads) {
+        List<Download> attached = new ArrayList<>();
+        if (downloads.isEmpty()) {
+            return attached;
+        }
 
-        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
-            final String existingDownloadUri = cur.getString(idxUri);
-            boolean uriMatches = false;
-            if (pattern != null) {
-                Matcher mForExistingUri = pattern.matcher(existingDownloadUri);
-                Matcher mForNewUri = pattern.matcher(downloadItem.getUriString());
-                uriMatches = mForExistingUri.find() && mForNewUri.find() &&
-                        mForExistingUri.group().equals(mForNewUri.group());
+        DownloadManager mgr = getDownloadManager();
+        existingDownloads.ensureLoaded(mgr);
+        for (Download downloadItem : downloads) {
+            if (downloadItem.usesHttpEngine()) {
+                continue;
             }
-            if (uriMatches || downloadItem.getUriString().equals(cur.getString(idxUri))) {
-                downloadItem.setDownloadId(cur.getLong(idxId));
-                downloadItem.setTempFileUri(cur.getString(idxLocalUri));
-                break;
+            ExistingDownloadIndex.Entry entry;
+            while ((entry = existingDownloads.find(downloadItem.getUriString(), downloadItem.getUriMatcher())) != null
+                    && !isAttachable(mgr, entry.getId())) {
+                // failed or removed since the index was loaded, the next match may still be usable
+                existingDownloads.remove(entry.getId());
+            }
+            if (entry != null) {
+                downloadItem.setDownloadId(entry.getId());
+                downloadItem.setTempFileUri(entry.getLocalUri());
+                attached.add(downloadItem);
             }
         }
-        cur.close();
 
-        return downloadItem.getDownloadId() != DOWNLOAD_ID_UNDEFINED;
+        return attached;
+    }
+
+    /**
+     * Checks a single entry, the index only learns about changes made by this plugin.
+     *
+     * @return whether the DownloadManager entry still exists and has not failed
+     */
+    private static boolean isAttachable(DownloadManager mgr, long downloadId) {
+        try (Cursor cur = mgr.query(new DownloadManager.Query().setFilterById(downloadId))) {
+            if (cur == null || !cur.moveToFirst()) {
+                return false;
+            }
+            return cur.getInt(cur.getColumnIndex(DownloadManager.COLUMN_STATUS)) != DownloadManager.STATUS_FAILED;
+        }
     }
 
     private void handleSuccessDownload(Download curDownload) {
+        // completion may be seen by several progress ticks at once, only the first one finalizes
+        if (!curDownload.transition(State.RUNNING, State.FINALIZING)) {
+            return;
+        }
+        curDownload.setFinalizingAt(System.currentTimeMillis());
+        FinalizationHook hook = finalizationHook;
+        if (hook != null) {
+            hook.onFinalizing(curDownload.getUriString());
+        }
+        if (curDownload.isCanceled()) {
+            // stopped right as it completed, cancel saw it running and the completion tick is gone already
+            cleanUp(curDownload, false);
+            curDownload.reportError(ERROR_CANCELED);
+            return;
+        }
+
         File sourceFile = new File(curDownload.getTempFileUri().getPath());
         File destFile = new File(curDownload.getTargetFileUri().getPath());
 
+        try {
+            if (curDownload.getDigest() != null && !verifyDigest(curDownload, sourceFile)) {
+                return;
+            }
+        } catch (InterruptedIOException e) {
+            cleanUp(curDownload, false);
+            curDownload.reportError(ERROR_CANCELED);
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot verify " + sourceFile, e);
+            cleanUp(curDownload, false);
+            curDownload.reportError("Cannot verify downloaded file");
+            return;
+        }
+
+        if (curDownload.isAtomic()) {
+            stage(curDownload);
+            return;
+        }
+
+        if (curDownload.getExtractFormat() != null) {
+            extractDownload(curDownload, sourceFile, destFile);
+            return;
+        }
+
         boolean copyingSuccess = false;
         try {
             // try to perform rename operation first
+            long renameStart = System.currentTimeMillis();
             copyingSuccess = sourceFile.renameTo(destFile);
             if (copyingSuccess) {
-                curDownload.getCallbackContext().success();
+                METRICS.renameTime.record(System.currentTimeMillis() - renameStart);
+                reportSuccess(curDownload, destFile);
                 return;
             }
 
@@ -495,7 +2816,7 @@ public class BackgroundDownload extends CordovaPlugin {
                         appSpecificInternalDirUuid, sourceFile.length());
                 copyFile(curDownload, sourceFile, destFile);
                 copyingSuccess = true;
-                curDownload.getCallbackContext().success();
+                reportSuccess(curDownload, destFile);
                 return;
             }
 
@@ -507,7 +2828,7 @@ public class BackgroundDownload extends CordovaPlugin {
             }
             copyFile(curDownload, sourceFile, destFile);
             copyingSuccess = true;
-            curDownload.getCallbackContext().success();
+            reportSuccess(curDownload, destFile);
         } catch (InterruptedIOException e) {
             curDownload.reportError(ERROR_CANCELED);
         } catch (Exception e) {
@@ -518,16 +2839,254 @@ public class BackgroundDownload extends CordovaPlugin {
         }
     }
 
+    /**
+     * Checks the downloaded file against the expected digest before it is moved to the target, a corrupt file is
+     * deleted and never reaches the target.
+     *
+     * @return true when the file is intact, otherwise the download is retried or failed
+     */
+    private boolean verifyDigest(Download curDownload, File file) throws IOException {
+        ExpectedDigest digest = curDownload.getDigest();
+        long verifyStart = System.currentTimeMillis();
+        String actual = digest.compute(curDownload, file);
+        METRICS.verifyTime.record(System.currentTimeMillis() - verifyStart);
+        if (actual.equals(digest.getValue())) {
+            if (ExpectedDigest.SHA_256.equals(digest.getAlgorithm())) {
+                curDownload.setContentHash(actual);
+            }
+            return true;
+        }
+
+        Log.w(TAG, String.format("%s checksum mismatch for %s, expected %s, got %s", digest.getAlgorithm(),
+                curDownload.getUriString(), digest.getValue(), actual));
+        // the next attempt downloads from the beginning
+        deleteFileIfExists(curDownload.getTempFileUri());
+        if (curDownload.usesHttpEngine()) {
+            journal.remove(curDownload.getUriString());
+        }
+        if (retryLater(curDownload, ERROR_CHECKSUM_MISMATCH, false)) {
+            return false;
+        }
+        // an existing target stays as it was
+        cleanUp(curDownload, false);
+        curDownload.reportError(ERROR_CHECKSUM_MISMATCH);
+        return false;
+    }
+
+    /**
+     * Decodes the downloaded archive into the target instead of moving it there.
+     */
+    private void extractDownload(Download curDownload, File sourceFile, File destFile) {
+        try {
+            extract(curDownload, sourceFile, destFile);
+            curDownload.reportSuccess();
+        } catch (InterruptedIOException e) {
+            curDownload.reportError(ERROR_CANCELED);
+        } catch (IOException e) {
+            curDownload.reportError("Cannot extract downloaded file");
+            Log.e(TAG, String.format("Error occurred while extracting the file. Source: '%s', dest: '%s'",
+                    curDownload.getTempFileUri(), curDownload.getTargetFileUri()), e);
+        } finally {
+            // the extractor leaves the target untouched when it fails
+            cleanUp(curDownload, false);
+        }
+    }
+
+    private void extract(final Download curDownload, File sourceFile, File destFile) throws IOException {
+        long extractStart = System.currentTimeMillis();
+        ArchiveExtractor.extract(curDownload.getExtractFormat(), sourceFile, destFile,
+                new ArchiveExtractor.Listener() {
+                    @Override
+                    public boolean isCanceled() {
+                        return curDownload.isCanceled();
+                    }
+
+                    @Override
+                    public void onProgress(long bytesRead, long totalBytes) {
+                        reportExtractProgress(curDownload, bytesRead, totalBytes);
+                    }
+                });
+        METRICS.extractTime.record(System.currentTimeMillis() - extractStart);
+    }
+
+    /**
+     * Keeps a verified member of an atomic batch in its temporary file until every member is verified. The member
+     * gives up its slot meanwhile, so the rest of the batch keeps downloading.
+     */
+    private void stage(Download curDownload) {
+        if (!curDownload.transition(State.FINALIZING, State.STAGED)) {
+            return;
+        }
+
+        boolean wasRunning;
+        synchronized (this) {
+            stopProgressTracking(curDownload);
+            wasRunning = curDownload.isRunning();
+            releaseRunningSlot(curDownload);
+        }
+        if (curDownload.isCanceled()) {
+            // canceled while finalizing, before cancel could see the staged state
+            cleanUp(curDownload, false);
+            curDownload.reportError(ERROR_CANCELED);
+            return;
+        }
+        if (wasRunning) {
+            scheduleDownloads();
+        }
+
+        if (curDownload.getBatch().onMemberStaged()) {
+            commitBatch(curDownload.getBatch());
+        }
+    }
+
+    /**
+     * Moves all members of an atomic batch to their targets, so either every target is updated or none, see
+     * DownloadBatch.commitFiles.
+     */
+    private void commitBatch(DownloadBatch batch) {
+        List<Download> members = batch.getMembers();
+        List<Download> committing = new ArrayList<>();
+        for (Download curDownload : members) {
+            if (curDownload.transition(State.STAGED, State.FINALIZING)) {
+                committing.add(curDownload);
+            }
+        }
+
+        String error = null;
+        if (committing.size() == members.size()) {
+            try {
+                DownloadBatch.commitFiles(committing, this::prepareCommit);
+                // cleaned up first, so a failing member cannot cancel one that is already committed
+                for (Download curDownload : committing) {
+                    cleanUp(curDownload, false);
+                }
+                for (Download curDownload : committing) {
+                    reportSuccess(curDownload, new File(curDownload.getTargetFileUri().getPath()));
+                }
+                return;
+            } catch (InterruptedIOException e) {
+                // canceled, see below
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot commit download batch " + batch.getId(), e);
+                error = "Cannot move downloaded files to their targets";
+            }
+        }
+
+        // a member was canceled while staged, or the commit failed
+        for (Download curDownload : committing) {
+            cleanUp(curDownload, false);
+        }
+        for (Download curDownload : committing) {
+            if (error == null) {
+                curDownload.reportError(ERROR_CANCELED);
+            } else {
+                curDownload.reportError(error);
+            }
+        }
+    }
+
+    /**
+     * Copies or extracts the temporary file of a staged member next to its target, or renames it there when both are
+     * on the same volume.
+     */
+    private void prepareCommit(Download curDownload, File sourceFile, File preparedFile) throws IOException {
+        if (curDownload.getExtractFormat() != null) {
+            extract(curDownload, sourceFile, preparedFile);
+            return;
+        }
+
+        long renameStart = System.currentTimeMillis();
+        if (sourceFile.renameTo(preparedFile)) {
+            METRICS.renameTime.record(System.currentTimeMillis() - renameStart);
+            return;
+        }
+        long usableSpace = Objects.requireNonNull(preparedFile.getParentFile()).getUsableSpace();
+        if (usableSpace < sourceFile.length()) {
+            throw new IOException("Not enough space for " + preparedFile);
+        }
+        copyFile(curDownload, sourceFile, preparedFile);
+    }
+
+    private void reportSuccess(Download curDownload, File destFile) {
+        curDownload.reportSuccess();
+        // cached after the success was reported, copying a large file must not delay it
+        if (curDownload.isCacheable() && curDownload.getState() == State.DONE) {
+            storeInCache(curDownload, destFile);
+        }
+    }
+
+    /**
+     * Copies into a sibling of the target which then replaces it, so the target is never seen half written.
+     */
     private void copyFile(Download curDownload, File fromFile, File toFile) throws IOException {
-        try (InputStream from = new FileInputStream(fromFile); OutputStream to = new FileOutputStream(toFile)) {
-            byte[] buf = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = from.read(buf)) > 0) {
-                to.write(buf, 0, bytesRead);
+        long copyStart = System.currentTimeMillis();
+        File partFile = new File(toFile.getPath() + COPY_SUFFIX);
+        boolean isCopied = false;
+        // channels let the kernel move the data, no heap buffer is needed
+        try (FileChannel from = new FileInputStream(fromFile).getChannel();
+             FileChannel to = new FileOutputStream(partFile).getChannel()) {
+            long size = from.size();
+            long position = 0;
+            while (position < size) {
+                long bytesCopied = from.transferTo(position, Math.min(COPY_CHUNK_SIZE, size - position), to);
+                if (bytesCopied <= 0) {
+                    break;
+                }
+                position += bytesCopied;
                 if (curDownload.isCanceled()) {
                     throw new InterruptedIOException("Copying terminated");
                 }
+                reportCopyProgress(curDownload, position, size);
             }
+            isCopied = true;
+        } finally {
+            if (!isCopied) {
+                //noinspection ResultOfMethodCallIgnored
+                partFile.delete();
+            }
+        }
+
+        if (!partFile.renameTo(toFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            partFile.delete();
+            throw new IOException("Cannot move " + partFile + " to " + toFile);
+        }
+        METRICS.copyTime.record(System.currentTimeMillis() - copyStart);
+    }
+
+    static void reportVerifyProgress(Download curDownload, long bytesVerified, long totalBytesToVerify) {
+        try {
+            JSONObject progress = new JSONObject();
+            progress.put("message", "Verifying downloaded file");
+            progress.put("bytesVerified", bytesVerified);
+            progress.put("totalBytesToVerify", totalBytesToVerify);
+            curDownload.reportProgress(progress);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void reportExtractProgress(Download curDownload, long bytesExtracted, long totalBytesToExtract) {
+        try {
+            JSONObject progress = new JSONObject();
+            progress.put("message", "Extracting downloaded file");
+            progress.put("bytesExtracted", bytesExtracted);
+            progress.put("totalBytesToExtract", totalBytesToExtract);
+            curDownload.reportProgress(progress);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void reportCopyProgress(Download curDownload, long bytesCopied, long totalBytesToCopy) {
+        try {
+            JSONObject progress = new JSONObject();
+            progress.put("message", "Copying to target file");
+            progress.put("bytesCopied", bytesCopied);
+            progress.put("totalBytesToCopy", totalBytesToCopy);
+            curDownload.reportProgress(progress);
+        } catch (JSONException e) {
+            e.printStackTrace();
         }
     }
 }
@@ -0,0 +1,115 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+
+/**
+ * Snapshot of the network and power state, the policies of queued downloads are checked against it.
+ */
+class DeviceConditions {
+
+    // DownloadManager.Request.NETWORK_MOBILE or NETWORK_WIFI, 0 when offline or on any other transport
+    private final int networkType;
+    private final boolean isRoaming;
+    private final boolean isMetered;
+    private final boolean isCharging;
+
+    DeviceConditions(int networkType, boolean isRoaming, boolean isMetered, boolean isCharging) {
+        this.networkType = networkType;
+        this.isRoaming = isRoaming;
+        this.isMetered = isMetered;
+        this.isCharging = isCharging;
+    }
+
+    public static DeviceConditions read(Context context) {
+        // power state cannot be queried before M, such policies are then left to DownloadManager
+        boolean isCharging = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            isCharging = ((BatteryManager) context.getSystemService(Context.BATTERY_SERVICE)).isCharging();
+        }
+
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return readNetworkInfo(connectivityManager, isCharging);
+        }
+        NetworkCapabilities capabilities =
+                connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+        if (capabilities == null) {
+            return new DeviceConditions(0, false, false, isCharging);
+        }
+        return new DeviceConditions(getNetworkType(capabilities),
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING),
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED), isCharging);
+    }
+
+    /**
+     * A VPN reports the transports of the networks it runs over, Ethernet or Bluetooth match neither type.
+     */
+    public static int getNetworkType(NetworkCapabilities capabilities) {
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return DownloadManager.Request.NETWORK_WIFI;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return DownloadManager.Request.NETWORK_MOBILE;
+        }
+        return 0;
+    }
+
+    /**
+     * NetworkInfo is the only way to classify the network before M.
+     */
+    @SuppressWarnings("deprecation")
+    private static DeviceConditions readNetworkInfo(ConnectivityManager connectivityManager, boolean isCharging) {
+        android.net.NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) {
+            return new DeviceConditions(0, false, false, isCharging);
+        }
+        int networkType = 0;
+        if (network.getType() == ConnectivityManager.TYPE_WIFI) {
+            networkType = DownloadManager.Request.NETWORK_WIFI;
+        } else if (network.getType() == ConnectivityManager.TYPE_MOBILE) {
+            networkType = DownloadManager.Request.NETWORK_MOBILE;
+        }
+        return new DeviceConditions(networkType, network.isRoaming(), connectivityManager.isActiveNetworkMetered(),
+                isCharging);
+    }
+
+    public int getNetworkType() {
+        return networkType;
+    }
+
+    public boolean isRoaming() {
+        return isRoaming;
+    }
+
+    public boolean isMetered() {
+        return isMetered;
+    }
+
+    public boolean isCharging() {
+        return isCharging;
+    }
+}
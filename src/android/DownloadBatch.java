@@ -0,0 +1,295 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.backgroundDownload.BackgroundDownload.Download;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Downloads started together by a single startBatch call. Progress of all members is reported in aggregate on
+ * the batch callback, the batch completes once every member has finished. The members of an atomic batch are
+ * moved to their targets together once all of them succeeded, the first failure cancels the others.
+ */
+class DownloadBatch {
+
+    private static final String TAG = "BackgroundDownload";
+    // siblings of the targets while the batch is committed, see commitFiles
+    private static final String COMMIT_SUFFIX = ".commit";
+    private static final String BACKUP_SUFFIX = ".backup";
+
+    /**
+     * Puts the temporary file of a staged member next to its target, see commitFiles.
+     */
+    interface Preparer {
+
+        void prepare(Download member, File sourceFile, File preparedFile) throws IOException;
+    }
+
+    private final String id;
+    private final CallbackContext callbackContext;
+    private final boolean isAtomic;
+    private final List<Download> members = new ArrayList<>();
+    private final JSONArray succeeded = new JSONArray();
+    private final JSONArray failed = new JSONArray();
+    // members finished since the last flush
+    private JSONArray recentlySucceeded = new JSONArray();
+    private JSONArray recentlyFailed = new JSONArray();
+    private int finishedCount;
+    private boolean isChanged;
+    // atomic batches only, see BackgroundDownload.commitBatch
+    private int stagedCount;
+    private boolean hasFailed;
+    private Runnable onMemberFailed;
+    private Runnable onFinished;
+
+    public DownloadBatch(String id, CallbackContext callbackContext, boolean isAtomic) {
+        this.id = id;
+        this.callbackContext = callbackContext;
+        this.isAtomic = isAtomic;
+    }
+
+    public boolean isAtomic() {
+        return isAtomic;
+    }
+
+    /**
+     * @param onMemberFailed run once when the first member of an atomic batch fails
+     */
+    public void setOnMemberFailed(Runnable onMemberFailed) {
+        this.onMemberFailed = onMemberFailed;
+    }
+
+    /**
+     * @param onFinished run once after the result of the batch was sent, without holding the lock of the batch
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * @return true when this was the last member to be staged and none has failed, the batch can be committed
+     */
+    public synchronized boolean onMemberStaged() {
+        stagedCount++;
+        return stagedCount == members.size() && !hasFailed;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public CallbackContext getCallbackContext() {
+        return callbackContext;
+    }
+
+    public synchronized List<Download> getMembers() {
+        return new ArrayList<>(members);
+    }
+
+    public synchronized void addMember(Download member) {
+        members.add(member);
+    }
+
+    public synchronized boolean isFinished() {
+        return finishedCount == members.size();
+    }
+
+    public synchronized void onProgress() {
+        isChanged = true;
+    }
+
+    public void onMemberFinished(Download member, String error) {
+        if (finishMember(member, error) && onFinished != null) {
+            onFinished.run();
+        }
+    }
+
+    /**
+     * @return true when this was the last member and the result of the batch was sent
+     */
+    private synchronized boolean finishMember(Download member, String error) {
+        if (member.isFinished()) {
+            return false;
+        }
+        member.setFinished(true);
+        finishedCount++;
+        isChanged = true;
+
+        try {
+            if (error == null) {
+                member.setBytes(member.getTotalBytesToReceive(), member.getTotalBytesToReceive());
+                succeeded.put(member.getUriString());
+                recentlySucceeded.put(member.getUriString());
+            } else {
+                JSONObject failure = new JSONObject();
+                failure.put("uri", member.getUriString());
+                failure.put("error", error);
+                failed.put(failure);
+                recentlyFailed.put(failure);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        if (error != null && isAtomic && !hasFailed) {
+            hasFailed = true;
+            if (onMemberFailed != null) {
+                onMemberFailed.run();
+            }
+        }
+
+        if (finishedCount < members.size()) {
+            return false;
+        }
+
+        BackgroundDownload.METRICS.bridgeEvents.incrementAndGet();
+        try {
+            JSONObject result = new JSONObject();
+            result.put("succeeded", succeeded);
+            result.put("failed", failed);
+            if (failed.length() == 0) {
+                callbackContext.success(result);
+            } else {
+                callbackContext.error(result);
+            }
+        } catch (JSONException e) {
+            callbackContext.error(e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Sends the aggregated progress of all members if anything changed since the previous flush.
+     */
+    public synchronized void flush() throws JSONException {
+        if (!isChanged || isFinished()) {
+            return;
+        }
+        isChanged = false;
+
+        long bytesReceived = 0;
+        long totalBytesToReceive = 0;
+        long throughput = 0;
+        for (Download member : members) {
+            bytesReceived += member.getBytesReceived();
+            totalBytesToReceive += member.getTotalBytesToReceive();
+            if (!member.isFinished()) {
+                throughput += member.getThroughput();
+            }
+        }
+
+        JSONObject progress = new JSONObject();
+        progress.put("bytesReceived", bytesReceived);
+        progress.put("totalBytesToReceive", totalBytesToReceive);
+        progress.put("throughput", throughput);
+        progress.put("eta", BackgroundDownload.getEta(bytesReceived, totalBytesToReceive, throughput));
+        progress.put("total", members.size());
+        progress.put("finished", finishedCount);
+        progress.put("succeeded", recentlySucceeded);
+        progress.put("failed", recentlyFailed);
+        recentlySucceeded = new JSONArray();
+        recentlyFailed = new JSONArray();
+
+        JSONObject obj = new JSONObject();
+        obj.put("progress", progress);
+        PluginResult progressUpdate = new PluginResult(PluginResult.Status.OK, obj);
+        progressUpdate.setKeepCallback(true);
+        BackgroundDownload.METRICS.bridgeEvents.incrementAndGet();
+        callbackContext.sendPluginResult(progressUpdate);
+    }
+
+    /**
+     * Moves the members to their targets, so either every target is updated or none. Each member is first prepared
+     * next to its target, then the targets are swapped by renames only. The targets replaced before a failure are
+     * restored from their backups.
+     */
+    public static void commitFiles(List<Download> members, Preparer preparer) throws IOException {
+        List<File> targets = new ArrayList<>();
+        List<File> prepared = new ArrayList<>();
+        List<File> swapped = new ArrayList<>();
+        try {
+            for (Download curDownload : members) {
+                File targetFile = new File(curDownload.getTargetFileUri().getPath());
+                File preparedFile = new File(targetFile.getPath() + COMMIT_SUFFIX);
+                targets.add(targetFile);
+                prepared.add(preparedFile);
+                ArchiveExtractor.deleteRecursively(preparedFile);
+                preparer.prepare(curDownload, new File(curDownload.getTempFileUri().getPath()), preparedFile);
+            }
+            for (Download curDownload : members) {
+                if (curDownload.isCanceled()) {
+                    throw new InterruptedIOException("Commit canceled");
+                }
+            }
+
+            for (int i = 0; i < targets.size(); i++) {
+                File targetFile = targets.get(i);
+                File backupFile = new File(targetFile.getPath() + BACKUP_SUFFIX);
+                ArchiveExtractor.deleteRecursively(backupFile);
+                if (targetFile.exists() && !targetFile.renameTo(backupFile)) {
+                    throw new IOException("Cannot move aside " + targetFile);
+                }
+                swapped.add(targetFile);
+                if (!prepared.get(i).renameTo(targetFile)) {
+                    throw new IOException("Cannot move " + prepared.get(i) + " to " + targetFile);
+                }
+            }
+        } catch (IOException e) {
+            for (File targetFile : swapped) {
+                restoreBackup(targetFile);
+            }
+            for (File preparedFile : prepared) {
+                deleteQuietly(preparedFile);
+            }
+            throw e;
+        }
+
+        for (File targetFile : targets) {
+            deleteQuietly(new File(targetFile.getPath() + BACKUP_SUFFIX));
+        }
+    }
+
+    private static void restoreBackup(File targetFile) {
+        File backupFile = new File(targetFile.getPath() + BACKUP_SUFFIX);
+        deleteQuietly(targetFile);
+        if (backupFile.exists() && !backupFile.renameTo(targetFile)) {
+            Log.e(TAG, "Cannot restore " + targetFile + " from " + backupFile);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            ArchiveExtractor.deleteRecursively(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot delete " + file, e);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Completed downloads kept on the device, so a download of a known uri is served without transferring it again.
+ * Files are stored once per SHA-256 of their content, several uris with the same content share the stored file.
+ * When the size limit is exceeded the least recently used uris are evicted.
+ */
+class DownloadCache {
+
+    private static final String TAG = "BackgroundDownload";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String PART_SUFFIX = ".part";
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long COPY_CHUNK_SIZE = 8388608; //8MB
+
+    static final long DEFAULT_MAX_SIZE = 104857600; //100MB
+
+    static class Entry {
+
+        private final String uri;
+        private final String hash;
+        private final String etag;
+        private final String lastModified;
+        private long storedAt;
+        private long lastAccess;
+
+        Entry(String uri, String hash, String etag, String lastModified, long storedAt, long lastAccess) {
+            this.uri = uri;
+            this.hash = hash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.lastAccess = lastAccess;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return whether the entry was stored or revalidated less than maxAge milliseconds ago
+         */
+        public boolean isFresh(long maxAge) {
+            return System.currentTimeMillis() - storedAt < maxAge;
+        }
+
+        public boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final File dir;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    DownloadCache(File dir) {
+        this.dir = dir;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        deleteParts();
+        load();
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+        save();
+    }
+
+    public synchronized Entry get(String uri) {
+        Entry entry = entries.get(uri);
+        if (entry != null && !getBlob(entry.hash).exists()) {
+            entries.remove(uri);
+            save();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Asks the server whether the cached content is still current, using the validators of the entry.
+     *
+     * @return true when the server answered 304 Not Modified, the entry is fresh again
+     */
+    public boolean revalidate(Entry entry, Map<String, String> headers) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(entry.uri).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (entry.etag != null) {
+                connection.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot revalidate cached " + entry.uri, e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        synchronized (this) {
+            entry.storedAt = System.currentTimeMillis();
+            save();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the cached content to the target. The target never shares its storage with the cache, so the app may
+     * modify it freely.
+     */
+    public boolean copyTo(Entry entry, File target) {
+        if (!place(entry.hash, target)) {
+            return false;
+        }
+
+        synchronized (this) {
+            entry.lastAccess = System.currentTimeMillis();
+            save();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the cached content with the given SHA-256 to the target, whichever uri it was stored for. The content is
+     * checked against the hash first, a corrupt file is removed from the cache.
+     *
+     * @return false when no such content is cached
+     */
+    public boolean copyTo(String hash, File target) {
+        synchronized (this) {
+            if (!isReferenced(hash) || !getBlob(hash).exists()) {
+                return false;
+            }
+        }
+        if (!isIntact(hash) || !place(hash, target)) {
+            return false;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Entry entry : entries.values()) {
+                if (entry.hash.equals(hash)) {
+                    entry.lastAccess = now;
+                }
+            }
+            save();
+        }
+        return true;
+    }
+
+    private boolean isIntact(String hash) {
+        try {
+            if (hash.equals(sha256(getBlob(hash)))) {
+                return true;
+            }
+            Log.w(TAG, "Cached " + hash + " does not match its hash");
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read cached " + hash, e);
+        }
+
+        synchronized (this) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().hash.equals(hash)) {
+                    it.remove();
+                }
+            }
+            deleteIfExists(getBlob(hash));
+            save();
+        }
+        return false;
+    }
+
+    private boolean place(String hash, File target) {
+        File blob = getBlob(hash);
+        try {
+            deleteIfExists(target);
+            copy(blob, target);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot copy cached " + hash + " to " + target, e);
+            deleteIfExists(target);
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of a completed download. The file is copied outside of the lock, into a part file which becomes
+     * the stored file unless the same content was stored meanwhile. Without a known hash the content is hashed while
+     * it is copied. Nothing is stored when the file changes while it is copied, e.g. because the app already modifies
+     * it.
+     *
+     * @param hash the SHA-256 of the file, see sha256, or null when it is not known
+     */
+    public void put(String uri, File file, String hash, String etag, String lastModified) {
+        File part = null;
+        if (hash == null || !getBlob(hash).exists()) {
+            try {
+                long length = file.length();
+                long modifiedAt = file.lastModified();
+                part = File.createTempFile("put", PART_SUFFIX, dir);
+                String copiedHash = copyAndHash(file, part);
+                if (file.length() != length || file.lastModified() != modifiedAt
+                        || (hash != null && !hash.equals(copiedHash))) {
+                    Log.w(TAG, "Not caching " + uri + ", it changed while it was copied");
+                    deleteIfExists(part);
+                    return;
+                }
+                hash = copiedHash;
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot cache " + uri, e);
+                if (part != null) {
+                    deleteIfExists(part);
+                }
+                return;
+            }
+        }
+
+        synchronized (this) {
+            File blob = getBlob(hash);
+            if (part != null && (blob.exists() || !part.renameTo(blob))) {
+                deleteIfExists(part);
+            }
+            if (!blob.exists()) {
+                Log.w(TAG, "Cannot cache " + uri + ", the file was not stored");
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            entries.put(uri, new Entry(uri, hash, etag, lastModified, now, now));
+            evict();
+            save();
+        }
+    }
+
+    /**
+     * Copies the file and returns the SHA-256 of the copied bytes, reading the file only once.
+     */
+    private static String copyAndHash(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from);
+             OutputStream out = new FileOutputStream(to)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static String sha256(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private File getBlob(String hash) {
+        return new File(dir, hash);
+    }
+
+    /**
+     * Removes the least recently used uris, and the files no uri refers to anymore, until the cache fits maxSize.
+     */
+    private void evict() {
+        List<Entry> byLastAccess = new ArrayList<>(entries.values());
+        Collections.sort(byLastAccess, (a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+
+        long size = getSize();
+        for (Entry entry : byLastAccess) {
+            if (size <= maxSize) {
+                break;
+            }
+            entries.remove(entry.uri);
+            if (!isReferenced(entry.hash)) {
+                File blob = getBlob(entry.hash);
+                size -= blob.length();
+                deleteIfExists(blob);
+            }
+        }
+    }
+
+    private long getSize() {
+        long size = 0;
+        HashSet<String> hashes = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (hashes.add(entry.hash)) {
+                size += getBlob(entry.hash).length();
+            }
+        }
+        return size;
+    }
+
+    private boolean isReferenced(String hash) {
+        for (Entry entry : entries.values()) {
+            if (entry.hash.equals(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the part files of puts that were interrupted by the end of the process.
+     */
+    private void deleteParts() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(PART_SUFFIX)) {
+                deleteIfExists(file);
+            }
+        }
+    }
+
+    private void load() {
+        File index = new File(dir, INDEX_FILE_NAME);
+        if (!index.exists()) {
+            return;
+        }
+
+        try (InputStream in = new FileInputStream(index)) {
+            byte[] data = new byte[(int) index.length()];
+            int offset = 0;
+            int bytesRead;
+            while (offset < data.length && (bytesRead = in.read(data, offset, data.length - offset)) > 0) {
+                offset += bytesRead;
+            }
+
+            JSONArray array = new JSONArray(new String(data, 0, offset, UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.getJSONObject(i);
+                Entry entry = new Entry(obj.getString("uri"), obj.getString("hash"),
+                        obj.isNull("etag") ? null : obj.getString("etag"),
+                        obj.isNull("lastModified") ? null : obj.getString("lastModified"),
+                        obj.getLong("storedAt"), obj.getLong("lastAccess"));
+                entries.put(entry.uri, entry);
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Cannot read download cache index", e);
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        File index = new File(dir, INDEX_FILE_NAME);
+        File tempIndex = new File(dir, INDEX_FILE_NAME + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempIndex)) {
+            JSONArray array = new JSONArray();
+            for (Entry entry : entries.values()) {
+                JSONObject obj = new JSONObject();
+                obj.put("uri", entry.uri);
+                obj.put("hash", entry.hash);
+                obj.put("etag", entry.etag);
+                obj.put("lastModified", entry.lastModified);
+                obj.put("storedAt", entry.storedAt);
+                obj.put("lastAccess", entry.lastAccess);
+                array.put(obj);
+            }
+            out.write(array.toString().getBytes(UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Cannot write download cache index", e);
+            return;
+        }
+
+        if (!tempIndex.renameTo(index)) {
+            Log.e(TAG, "Cannot replace download cache index " + index);
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (FileChannel in = new FileInputStream(from).getChannel();
+             FileChannel out = new FileOutputStream(to).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long bytesCopied = in.transferTo(position, Math.min(COPY_CHUNK_SIZE, size - position), out);
+                if (bytesCopied <= 0) {
+                    break;
+                }
+                position += bytesCopied;
+            }
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+}
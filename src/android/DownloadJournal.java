@@ -0,0 +1,193 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * On-disk record of partially downloaded files of the in-process engine, so a download interrupted by a failure or
+ * an app restart continues from the bytes already on disk. Entries are keyed by uri and written to a single JSON
+ * file, replaced atomically on every flush.
+ */
+class DownloadJournal {
+
+    private static final String TAG = "BackgroundDownload";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Entry {
+
+        private final String uri;
+        private final String targetFileUri;
+        private final String tempFilePath;
+        private final HttpDownloadEngine.Checkpoint checkpoint;
+
+        Entry(String uri, String targetFileUri, String tempFilePath, HttpDownloadEngine.Checkpoint checkpoint) {
+            this.uri = uri;
+            this.targetFileUri = targetFileUri;
+            this.tempFilePath = tempFilePath;
+            this.checkpoint = checkpoint;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getTargetFileUri() {
+            return targetFileUri;
+        }
+
+        public String getTempFilePath() {
+            return tempFilePath;
+        }
+
+        public HttpDownloadEngine.Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private boolean isDirty;
+
+    DownloadJournal(File file) {
+        this.file = file;
+        load();
+    }
+
+    public synchronized Entry get(String uri) {
+        return entries.get(uri);
+    }
+
+    public synchronized void put(Entry entry) {
+        entries.put(entry.uri, entry);
+        isDirty = true;
+    }
+
+    public synchronized void remove(String uri) {
+        if (entries.remove(uri) != null) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * Writes the journal if it changed since the previous flush.
+     */
+    public synchronized void flush() {
+        if (!isDirty) {
+            return;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            JSONArray array = new JSONArray();
+            for (Entry entry : entries.values()) {
+                array.put(toJson(entry));
+            }
+            out.write(array.toString().getBytes(UTF_8));
+            out.flush();
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Cannot write download journal", e);
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            Log.e(TAG, "Cannot replace download journal " + file);
+            return;
+        }
+        isDirty = false;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int bytesRead;
+            while (offset < data.length && (bytesRead = in.read(data, offset, data.length - offset)) > 0) {
+                offset += bytesRead;
+            }
+
+            JSONArray array = new JSONArray(new String(data, 0, offset, UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = fromJson(array.getJSONObject(i));
+                entries.put(entry.uri, entry);
+            }
+        } catch (IOException | JSONException e) {
+            // a damaged journal only means downloads start from the beginning
+            Log.w(TAG, "Cannot read download journal", e);
+            entries.clear();
+        }
+    }
+
+    private static JSONObject toJson(Entry entry) throws JSONException {
+        HttpDownloadEngine.Checkpoint checkpoint = entry.checkpoint;
+        JSONArray segments = new JSONArray();
+        for (HttpDownloadEngine.Segment segment : checkpoint.getSegments()) {
+            JSONArray item = new JSONArray();
+            item.put(segment.getStart());
+            item.put(segment.getEnd());
+            item.put(segment.getWritten());
+            segments.put(item);
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("uri", entry.uri);
+        obj.put("target", entry.targetFileUri);
+        obj.put("tempFile", entry.tempFilePath);
+        obj.put("etag", checkpoint.getEtag());
+        obj.put("lastModified", checkpoint.getLastModified());
+        obj.put("totalBytes", checkpoint.getTotalBytes());
+        obj.put("segments", segments);
+        return obj;
+    }
+
+    private static Entry fromJson(JSONObject obj) throws JSONException {
+        JSONArray array = obj.getJSONArray("segments");
+        List<HttpDownloadEngine.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONArray item = array.getJSONArray(i);
+            segments.add(new HttpDownloadEngine.Segment(item.getLong(0), item.getLong(1), item.getLong(2)));
+        }
+
+        HttpDownloadEngine.Checkpoint checkpoint = new HttpDownloadEngine.Checkpoint(
+                obj.isNull("etag") ? null : obj.getString("etag"),
+                obj.isNull("lastModified") ? null : obj.getString("lastModified"),
+                obj.getLong("totalBytes"),
+                segments.toArray(new HttpDownloadEngine.Segment[0]));
+        return new Entry(obj.getString("uri"), obj.getString("target"), obj.getString("tempFile"), checkpoint);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counters and histograms describing the performance of the plugin since it was loaded. Recording only updates
+ * atomic primitives and never allocates, so collection stays enabled; JSON is only built when metrics are read.
+ */
+class DownloadMetrics {
+
+    /**
+     * Histogram with power of two buckets, bucket i holds the values from 2^(i-1) to 2^i - 1. Quantiles are
+     * reported as the upper bound of their bucket.
+     */
+    static class Histogram {
+
+        private static final int BUCKETS = 48;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                return;
+            }
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax;
+            while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+                // retry until the maximum is at least value
+            }
+        }
+
+        private long getQuantile(long total, double quantile) {
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        public JSONObject toJson() throws JSONException {
+            long total = count.get();
+            JSONObject obj = new JSONObject();
+            obj.put("count", total);
+            if (total > 0) {
+                obj.put("mean", sum.get() / total);
+                obj.put("p50", getQuantile(total, 0.5));
+                obj.put("p90", getQuantile(total, 0.9));
+                obj.put("p99", getQuantile(total, 0.99));
+                obj.put("max", max.get());
+            }
+            return obj;
+        }
+    }
+
+    final AtomicLong started = new AtomicLong();
+    final AtomicLong succeeded = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong canceled = new AtomicLong();
+    final AtomicLong retries = new AtomicLong();
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+    // bytes downloaded and then thrown away by cancels and restarts from the beginning
+    final AtomicLong bytesWasted = new AtomicLong();
+    // results, progress and other messages sent over the Cordova bridge
+    final AtomicLong bridgeEvents = new AtomicLong();
+
+    // all times in milliseconds
+    final Histogram queueWait = new Histogram();
+    final Histogram timeToFirstByte = new Histogram();
+    // bytes per second of successful downloads, from start to completion of the transfer
+    final Histogram throughput = new Histogram();
+    final Histogram verifyTime = new Histogram();
+    final Histogram renameTime = new Histogram();
+    final Histogram copyTime = new Histogram();
+    final Histogram extractTime = new Histogram();
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject finalization = new JSONObject();
+        finalization.put("verify", verifyTime.toJson());
+        finalization.put("rename", renameTime.toJson());
+        finalization.put("copy", copyTime.toJson());
+        finalization.put("extract", extractTime.toJson());
+
+        JSONObject obj = new JSONObject();
+        obj.put("started", started.get());
+        obj.put("succeeded", succeeded.get());
+        obj.put("failed", failed.get());
+        obj.put("canceled", canceled.get());
+        obj.put("retries", retries.get());
+        obj.put("cacheHits", cacheHits.get());
+        obj.put("bytesReceived", bytesReceived.get());
+        obj.put("bytesWasted", bytesWasted.get());
+        obj.put("bridgeEvents", bridgeEvents.get());
+        obj.put("queueWait", queueWait.toJson());
+        obj.put("timeToFirstByte", timeToFirstByte.toJson());
+        obj.put("throughput", throughput.toJson());
+        obj.put("finalization", finalization);
+        return obj;
+    }
+}
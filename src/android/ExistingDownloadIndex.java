@@ -0,0 +1,167 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.app.DownloadManager;
+import android.database.Cursor;
+
+/**
+ * In-memory copy of the DownloadManager entries a new download can attach to. Loaded with a single query on first
+ * use and kept in sync as downloads are enqueued and removed, so starting a download does not scan the cursor.
+ * Entries of previous sessions may fail or disappear meanwhile, a match is checked with a single-id query before it
+ * is attached to, see BackgroundDownload.isAttachable.
+ */
+class ExistingDownloadIndex {
+
+    static class Entry {
+        private final long id;
+        private final String uri;
+        private final String localUri;
+
+        Entry(long id, String uri, String localUri) {
+            this.id = id;
+            this.uri = uri;
+            this.localUri = localUri;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getLocalUri() {
+            return localUri;
+        }
+    }
+
+    private final HashMap<Long, Entry> byId = new HashMap<>();
+    private final HashMap<String, Entry> byUri = new HashMap<>();
+    // uri matcher -> matched part of the uri -> entry, built lazily per matcher
+    private final HashMap<String, HashMap<String, Entry>> byMatcherGroup = new HashMap<>();
+    private final HashMap<String, Pattern> patterns = new HashMap<>();
+    private boolean isLoaded;
+
+    public synchronized void ensureLoaded(DownloadManager mgr) {
+        if (isLoaded) {
+            return;
+        }
+
+        DownloadManager.Query query = new DownloadManager.Query();
+        query.setFilterByStatus(DownloadManager.STATUS_PAUSED | DownloadManager.STATUS_PENDING | DownloadManager.STATUS_RUNNING | DownloadManager.STATUS_SUCCESSFUL);
+
+        try (Cursor cur = mgr.query(query)) {
+            int idxId = cur.getColumnIndex(DownloadManager.COLUMN_ID);
+            int idxUri = cur.getColumnIndex(DownloadManager.COLUMN_URI);
+            int idxLocalUri = cur.getColumnIndex(DownloadManager.COLUMN_LOCAL_URI);
+
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                add(cur.getLong(idxId), cur.getString(idxUri), cur.getString(idxLocalUri));
+            }
+        }
+        isLoaded = true;
+    }
+
+    public synchronized void add(long id, String uri, String localUri) {
+        Entry entry = new Entry(id, uri, localUri);
+        byId.put(id, entry);
+        if (!byUri.containsKey(uri)) {
+            byUri.put(uri, entry);
+        }
+        for (Map.Entry<String, HashMap<String, Entry>> groups : byMatcherGroup.entrySet()) {
+            String group = findGroup(groups.getKey(), uri);
+            if (group != null && !groups.getValue().containsKey(group)) {
+                groups.getValue().put(group, entry);
+            }
+        }
+    }
+
+    public synchronized boolean contains(long id) {
+        return byId.containsKey(id);
+    }
+
+    public synchronized void remove(long id) {
+        Entry entry = byId.remove(id);
+        if (entry == null) {
+            return;
+        }
+
+        if (byUri.get(entry.uri) == entry) {
+            byUri.remove(entry.uri);
+            for (Entry other : byId.values()) {
+                if (other.uri.equals(entry.uri)) {
+                    byUri.put(other.uri, other);
+                    break;
+                }
+            }
+        }
+        // another entry may share the group, so let the matcher be re-indexed on next use
+        Iterator<HashMap<String, Entry>> it = byMatcherGroup.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().containsValue(entry)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Finds the entry with the same part of the uri matched by uriMatcher, or with the same uri.
+     */
+    public synchronized Entry find(String uri, String uriMatcher) {
+        if (uriMatcher != null && !"".equals(uriMatcher)) {
+            String group = findGroup(uriMatcher, uri);
+            if (group != null) {
+                Entry entry = getGroups(uriMatcher).get(group);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        return byUri.get(uri);
+    }
+
+    private HashMap<String, Entry> getGroups(String uriMatcher) {
+        HashMap<String, Entry> groups = byMatcherGroup.get(uriMatcher);
+        if (groups == null) {
+            groups = new HashMap<>();
+            for (Entry entry : byId.values()) {
+                String group = findGroup(uriMatcher, entry.uri);
+                if (group != null && !groups.containsKey(group)) {
+                    groups.put(group, entry);
+                }
+            }
+            byMatcherGroup.put(uriMatcher, groups);
+        }
+        return groups;
+    }
+
+    private String findGroup(String uriMatcher, String uri) {
+        Pattern pattern = patterns.get(uriMatcher);
+        if (pattern == null) {
+            pattern = Pattern.compile(uriMatcher);
+            patterns.put(uriMatcher, pattern);
+        }
+        Matcher matcher = pattern.matcher(uri);
+        return matcher.find() ? matcher.group() : null;
+    }
+}
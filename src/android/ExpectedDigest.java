@@ -0,0 +1,118 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import org.apache.cordova.backgroundDownload.BackgroundDownload.Download;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The checksum a downloaded file must have, a MessageDigest algorithm such as SHA-256 or CRC32.
+ */
+class ExpectedDigest {
+
+    private static final String CRC32 = "CRC32";
+    static final String SHA_256 = "SHA-256";
+    private static final int VERIFY_BUFFER_SIZE = 65536;
+
+    private final String algorithm;
+    private final String value;
+
+    ExpectedDigest(String algorithm, String value) {
+        this.algorithm = algorithm;
+        this.value = value;
+    }
+
+    public static ExpectedDigest create(JSONObject options) throws JSONException {
+        String algorithm = options.optString("algorithm", SHA_256).toUpperCase(Locale.US);
+        if (!CRC32.equals(algorithm)) {
+            try {
+                MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new JSONException("Unsupported digest algorithm " + algorithm);
+            }
+        }
+        return new ExpectedDigest(algorithm, options.getString("value").toLowerCase(Locale.US));
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Computes the checksum of the file, reporting progress and stopping when the download is canceled.
+     *
+     * @return the checksum as lower case hex
+     */
+    public String compute(Download curDownload, File file) throws IOException {
+        CRC32 crc = null;
+        MessageDigest digest = null;
+        if (CRC32.equals(algorithm)) {
+            crc = new CRC32();
+        } else {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[VERIFY_BUFFER_SIZE];
+            long size = file.length();
+            long position = 0;
+            long reportedPosition = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                if (crc != null) {
+                    crc.update(buffer, 0, bytesRead);
+                } else {
+                    digest.update(buffer, 0, bytesRead);
+                }
+                position += bytesRead;
+                if (position - reportedPosition >= BackgroundDownload.COPY_CHUNK_SIZE) {
+                    if (curDownload.isCanceled()) {
+                        throw new InterruptedIOException("Verification terminated");
+                    }
+                    BackgroundDownload.reportVerifyProgress(curDownload, position, size);
+                    reportedPosition = position;
+                }
+            }
+        }
+
+        if (crc != null) {
+            return String.format(Locale.US, "%08x", crc.getValue());
+        }
+        return DownloadCache.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,600 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process download engine based on HttpURLConnection, used instead of DownloadManager when a download asks for
+ * engine "http". When the server supports byte ranges the file is split into segments downloaded over parallel
+ * connections, each segment is written at its offset with positional FileChannel writes.
+ * A transfer can be resumed from a Checkpoint, the missing ranges are requested with If-Range so the bytes on disk
+ * are only reused while the resource is unchanged.
+ * Does not depend on Android, so it can be run against any HTTP server.
+ */
+class HttpDownloadEngine {
+
+    interface Listener {
+
+        void onComplete(Transfer transfer);
+
+        /**
+         * @param httpStatus the unexpected HTTP status code, 0 when the transfer failed with an exception
+         */
+        void onError(Transfer transfer, int httpStatus, Exception cause);
+    }
+
+    static final int DEFAULT_SEGMENTS = 4;
+
+    // smaller files are not worth additional connections
+    private static final long MIN_SEGMENT_SIZE = 1048576; //1MB
+    private static final int BUFFER_SIZE = 65536;
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 30000;
+
+    /**
+     * Byte range of the file downloaded over one connection.
+     */
+    static class Segment {
+
+        private final long start;
+        // last byte of the segment, negative when the size of the file is unknown
+        private final long end;
+        private final AtomicLong written;
+
+        Segment(long start, long end, long written) {
+            this.start = start;
+            this.end = end;
+            this.written = new AtomicLong(written);
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getWritten() {
+            return written.get();
+        }
+
+        boolean isComplete() {
+            return end >= 0 && start + written.get() > end;
+        }
+
+        String getRange() {
+            return "bytes=" + (start + written.get()) + "-" + (end >= 0 ? String.valueOf(end) : "");
+        }
+    }
+
+    /**
+     * State of a transfer needed to resume it later.
+     */
+    static class Checkpoint {
+
+        private final String etag;
+        private final String lastModified;
+        private final long totalBytes;
+        private final Segment[] segments;
+
+        Checkpoint(String etag, String lastModified, long totalBytes, Segment[] segments) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.totalBytes = totalBytes;
+            this.segments = segments;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public Segment[] getSegments() {
+            return segments;
+        }
+
+        public long getBytesWritten() {
+            long bytesWritten = 0;
+            for (Segment segment : segments) {
+                bytesWritten += segment.getWritten();
+            }
+            return bytesWritten;
+        }
+
+        /**
+         * @return the If-Range value, null when the resource cannot be validated and must not be resumed
+         */
+        String getValidator() {
+            // weak entity tags cannot be used with If-Range
+            if (etag != null && !etag.startsWith("W/")) {
+                return etag;
+            }
+            return lastModified;
+        }
+    }
+
+    static class Transfer {
+
+        private final String uri;
+        private final File file;
+        private final Map<String, String> headers;
+        private final int segmentCount;
+        private final Checkpoint checkpoint;
+        private final Listener listener;
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicInteger runningSegments = new AtomicInteger();
+        private final AtomicBoolean isDone = new AtomicBoolean();
+        private volatile long totalBytes = -1;
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile Segment[] segments;
+        private volatile boolean isCanceled;
+        private volatile boolean isDiscarded;
+        private FileChannel channel;
+
+        Transfer(String uri, File file, Map<String, String> headers, int segmentCount, Checkpoint checkpoint,
+                 Listener listener) {
+            this.uri = uri;
+            this.file = file;
+            this.headers = headers;
+            this.segmentCount = Math.max(1, segmentCount);
+            this.checkpoint = checkpoint;
+            this.listener = listener;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        /**
+         * @return the size of the file, -1 if not known yet
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return the current state of the transfer, null before the server responded
+         */
+        public Checkpoint getCheckpoint() {
+            Segment[] current = segments;
+            if (current == null) {
+                return null;
+            }
+            Segment[] copy = new Segment[current.length];
+            for (int i = 0; i < current.length; i++) {
+                copy[i] = new Segment(current[i].start, current[i].end, current[i].getWritten());
+            }
+            return new Checkpoint(etag, lastModified, totalBytes, copy);
+        }
+
+        public void cancel() {
+            this.isCanceled = true;
+        }
+
+        /**
+         * Cancels the transfer and deletes its file once no segment writes to it anymore. The file is deleted by the
+         * engine only if the transfer is still running, so the caller deletes it as well afterwards.
+         */
+        public void discard() {
+            this.isDiscarded = true;
+            this.isCanceled = true;
+        }
+
+        public boolean isCanceled() {
+            return isCanceled;
+        }
+    }
+
+    /**
+     * Token bucket shared by all transfers, limits the bytes per second read from the network. Up to one second of
+     * bytes may be read in a burst, a reader exceeding the budget sleeps until it is paid back.
+     */
+    static class RateLimiter {
+
+        // 0 when unlimited
+        private long bytesPerSecond;
+        private double available;
+        private long lastRefill = System.nanoTime();
+
+        public synchronized void setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            available = Math.min(available, this.bytesPerSecond);
+        }
+
+        public synchronized long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public void acquire(int bytes) throws InterruptedIOException {
+            long waitNanos;
+            synchronized (this) {
+                if (bytesPerSecond == 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                available = Math.min(bytesPerSecond, available + (now - lastRefill) * bytesPerSecond / 1e9);
+                lastRefill = now;
+                available -= bytes;
+                waitNanos = available < 0 ? (long) (-available * 1e9 / bytesPerSecond) : 0;
+            }
+
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted");
+                }
+            }
+        }
+    }
+
+    private final Executor executor;
+    private final RateLimiter rateLimiter = new RateLimiter();
+
+    HttpDownloadEngine(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Limits the combined speed of all transfers.
+     *
+     * @param bytesPerSecond the limit, 0 for none
+     */
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        rateLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * @param checkpoint the state of a previous transfer of the same uri into the same file, null to start from the
+     *                   beginning
+     */
+    public Transfer start(String uri, File file, Map<String, String> headers, int segments, Checkpoint checkpoint,
+                          Listener listener) {
+        final Transfer transfer = new Transfer(uri, file, headers, segments, checkpoint, listener);
+        executor.execute(() -> run(transfer));
+        return transfer;
+    }
+
+    private void run(Transfer transfer) {
+        HttpURLConnection connection = null;
+        try {
+            Checkpoint checkpoint = transfer.checkpoint;
+            String validator = checkpoint != null && transfer.file.exists() ? checkpoint.getValidator() : null;
+            int status;
+            if (validator != null) {
+                Segment first = null;
+                for (Segment segment : checkpoint.segments) {
+                    if (!segment.isComplete()) {
+                        first = segment;
+                        break;
+                    }
+                }
+                if (first == null) {
+                    // every byte is already on disk
+                    resume(transfer, checkpoint, null, null);
+                    return;
+                }
+
+                connection = open(transfer, first.getRange(), validator);
+                status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_PARTIAL) {
+                    resume(transfer, checkpoint, first, connection);
+                    return;
+                }
+                // otherwise the resource has changed and the response is the whole file
+            } else {
+                // an open ended range tells whether the server supports ranges and the file size with a single request
+                connection = open(transfer, "bytes=0-", null);
+                status = connection.getResponseCode();
+            }
+
+            if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+                fail(transfer, status, null);
+                return;
+            }
+
+            boolean isRangeSupported = status == HttpURLConnection.HTTP_PARTIAL;
+            long totalBytes = isRangeSupported
+                    ? parseContentRangeTotal(connection.getHeaderField("Content-Range"))
+                    : parseLong(connection.getHeaderField("Content-Length"));
+
+            int segmentCount = 1;
+            if (isRangeSupported && totalBytes > 0) {
+                segmentCount = (int) Math.max(1, Math.min(transfer.segmentCount, totalBytes / MIN_SEGMENT_SIZE));
+            }
+            long segmentSize = segmentCount > 1 ? totalBytes / segmentCount : totalBytes;
+            Segment[] segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * segmentSize;
+                long end = i == segmentCount - 1 ? totalBytes - 1 : start + segmentSize - 1;
+                segments[i] = new Segment(start, end, 0);
+            }
+
+            RandomAccessFile file = new RandomAccessFile(transfer.file, "rw");
+            file.setLength(Math.max(0, totalBytes));
+            transfer.channel = file.getChannel();
+            transfer.totalBytes = totalBytes;
+            transfer.etag = connection.getHeaderField("ETag");
+            transfer.lastModified = connection.getHeaderField("Last-Modified");
+            transfer.segments = segments;
+            transfer.runningSegments.set(segmentCount);
+
+            for (int i = 1; i < segmentCount; i++) {
+                final Segment segment = segments[i];
+                executor.execute(() -> runSegment(transfer, segment, null));
+            }
+
+            // the first segment reuses the response of the probe request
+            try (InputStream in = connection.getInputStream()) {
+                readSegment(transfer, in, segments[0]);
+            }
+            finishSegment(transfer);
+        } catch (Exception e) {
+            fail(transfer, 0, e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Continues a transfer from its checkpoint.
+     *
+     * @param first      the first incomplete segment, null when there is none
+     * @param connection the accepted range request for the first segment
+     */
+    private void resume(Transfer transfer, Checkpoint checkpoint, Segment first, HttpURLConnection connection)
+            throws IOException {
+        transfer.channel = new RandomAccessFile(transfer.file, "rw").getChannel();
+        transfer.totalBytes = checkpoint.totalBytes;
+        transfer.etag = checkpoint.etag;
+        transfer.lastModified = checkpoint.lastModified;
+        transfer.segments = checkpoint.segments;
+        transfer.bytesReceived.set(checkpoint.getBytesWritten());
+
+        List<Segment> incomplete = new ArrayList<>();
+        for (Segment segment : checkpoint.segments) {
+            if (!segment.isComplete() && segment != first) {
+                incomplete.add(segment);
+            }
+        }
+        transfer.runningSegments.set(incomplete.size() + 1);
+
+        for (final Segment segment : incomplete) {
+            executor.execute(() -> runSegment(transfer, segment, checkpoint.getValidator()));
+        }
+
+        if (first != null) {
+            try (InputStream in = connection.getInputStream()) {
+                readSegment(transfer, in, first);
+            }
+        }
+        finishSegment(transfer);
+    }
+
+    private void runSegment(Transfer transfer, Segment segment, String validator) {
+        HttpURLConnection connection = null;
+        try {
+            connection = open(transfer, segment.getRange(), validator);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                fail(transfer, status, null);
+                return;
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                readSegment(transfer, in, segment);
+            }
+            finishSegment(transfer);
+        } catch (Exception e) {
+            fail(transfer, 0, e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Asks the server for the size of the resource with a HEAD request, before anything is downloaded.
+     *
+     * @return the Content-Length, -1 when the server does not tell
+     */
+    public static long probeSize(String uri, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            // the size of the encoded body is not the size of the file
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if (connection.getResponseCode() / 100 != 2) {
+                return -1;
+            }
+            return parseLong(connection.getHeaderField("Content-Length"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @param validator the If-Range value, null for an unconditional range request
+     */
+    private HttpURLConnection open(Transfer transfer, String range, String validator) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(transfer.uri).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        for (Map.Entry<String, String> header : transfer.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        // transparent gzip would break ranges and the reported size
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", range);
+        if (validator != null) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        return connection;
+    }
+
+    /**
+     * Writes the stream at the position of the segment in the file.
+     */
+    private void readSegment(Transfer transfer, InputStream in, Segment segment) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long position = segment.start + segment.getWritten();
+        long remaining = segment.end < 0 ? Long.MAX_VALUE : segment.end - position + 1;
+
+        while (remaining > 0) {
+            if (transfer.isCanceled || transfer.isDone.get()) {
+                throw new InterruptedIOException("Download terminated");
+            }
+
+            int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead < 0) {
+                break;
+            }
+            // a reader held back here lets the socket buffer fill up, which slows down the sender
+            rateLimiter.acquire(bytesRead);
+
+            byteBuffer.clear();
+            byteBuffer.limit(bytesRead);
+            while (byteBuffer.hasRemaining()) {
+                position += transfer.channel.write(byteBuffer, position);
+            }
+            remaining -= bytesRead;
+            // counted once the bytes are written, so a checkpoint never claims data which is not on disk
+            segment.written.addAndGet(bytesRead);
+            transfer.bytesReceived.addAndGet(bytesRead);
+        }
+
+        if (segment.end >= 0 && remaining > 0) {
+            throw new IOException("Connection closed before the end of the segment");
+        }
+    }
+
+    private void finishSegment(Transfer transfer) {
+        if (transfer.runningSegments.decrementAndGet() > 0 || !transfer.isDone.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            transfer.channel.close();
+        } catch (IOException e) {
+            transfer.listener.onError(transfer, 0, e);
+            return;
+        }
+
+        if (transfer.isDiscarded) {
+            deleteQuietly(transfer.file);
+        } else if (!transfer.isCanceled) {
+            transfer.listener.onComplete(transfer);
+        }
+    }
+
+    private void fail(Transfer transfer, int httpStatus, Exception cause) {
+        if (!transfer.isDone.compareAndSet(false, true)) {
+            return;
+        }
+
+        closeQuietly(transfer.channel);
+        if (transfer.isDiscarded) {
+            // a file opened after the caller deleted it is only closed now
+            deleteQuietly(transfer.file);
+        } else if (!transfer.isCanceled) {
+            transfer.listener.onError(transfer, httpStatus, cause);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange the header value, e.g. "bytes 0-1023/4096"
+     */
+    private static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int separator = contentRange.lastIndexOf('/');
+        return separator < 0 ? -1 : parseLong(contentRange.substring(separator + 1));
+    }
+}
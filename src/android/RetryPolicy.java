@@ -0,0 +1,116 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.app.DownloadManager;
+
+/**
+ * How often and when a failed download is started again. Delays grow exponentially, jitter spreads the retries
+ * of downloads which failed at the same moment.
+ */
+class RetryPolicy {
+
+    private static final int[] DEFAULT_RETRYABLE_REASONS = {
+            DownloadManager.ERROR_CANNOT_RESUME, DownloadManager.ERROR_HTTP_DATA_ERROR,
+            DownloadManager.ERROR_UNKNOWN, HttpURLConnection.HTTP_CLIENT_TIMEOUT, 429,
+            HttpURLConnection.HTTP_INTERNAL_ERROR, HttpURLConnection.HTTP_BAD_GATEWAY,
+            HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_GATEWAY_TIMEOUT
+    };
+    private static final Random RANDOM = new Random();
+
+    static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 1, 0, DEFAULT_RETRYABLE_REASONS);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final double backoff;
+    private final double jitter;
+    private final int[] retryableReasons;
+
+    RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, double backoff, double jitter,
+                int[] retryableReasons) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.backoff = backoff;
+        this.jitter = jitter;
+        this.retryableReasons = retryableReasons;
+    }
+
+    public static RetryPolicy create(JSONObject options) throws JSONException {
+        int[] retryableReasons = DEFAULT_RETRYABLE_REASONS;
+        JSONArray reasons = options.optJSONArray("retryableReasons");
+        if (reasons != null) {
+            retryableReasons = new int[reasons.length()];
+            for (int i = 0; i < reasons.length(); i++) {
+                retryableReasons[i] = parseReason(reasons.get(i));
+            }
+        }
+
+        return new RetryPolicy(
+                Math.max(1, options.optInt("maxAttempts", 3)),
+                Math.max(0, options.optLong("baseDelay", 1000)),
+                Math.max(0, options.optLong("maxDelay", 60000)),
+                Math.max(1, options.optDouble("backoff", 2)),
+                Math.min(1, Math.max(0, options.optDouble("jitter", 1))),
+                retryableReasons);
+    }
+
+    /**
+     * @param reason a reason code or its name as reported by getUserFriendlyReason
+     */
+    private static int parseReason(Object reason) throws JSONException {
+        if (reason instanceof Number) {
+            return ((Number) reason).intValue();
+        }
+        for (int knownReason : BackgroundDownload.KNOWN_REASONS) {
+            if (BackgroundDownload.getUserFriendlyReason(knownReason).equals(reason.toString())) {
+                return knownReason;
+            }
+        }
+        throw new JSONException("Unknown retryable reason " + reason);
+    }
+
+    public boolean shouldRetry(int reason, int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        for (int retryableReason : retryableReasons) {
+            if (retryableReason == reason) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt the attempt which failed, starting with 1
+     */
+    public long getDelay(int attempt) {
+        double delay = Math.min(maxDelay, baseDelay * Math.pow(backoff, attempt - 1));
+        return (long) (delay * (1 - jitter) + delay * jitter * RANDOM.nextDouble());
+    }
+}
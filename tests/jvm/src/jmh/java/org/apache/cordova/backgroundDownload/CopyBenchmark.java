@@ -0,0 +1,114 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Copying a finished download to its target when a rename is not possible: the FileChannel.transferTo copy of the
+ * plugin against the stream copy with a 16MB heap buffer it replaced. Run with the gc profiler, as the jmh task does,
+ * gc.alloc.rate.norm shows the heap each copy needs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark {
+
+    private static final int STREAM_BUFFER_SIZE = 16777216; //16MB
+
+    @Param({"1048576", "67108864"})
+    public int size;
+
+    private File dir;
+    private File source;
+    private File target;
+    private BackgroundDownload plugin;
+    private Object download;
+    private MethodHandle copyFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("copy-benchmark").toFile();
+        source = new File(dir, "source");
+        target = new File(dir, "target");
+        byte[] chunk = new byte[1048576];
+        new Random(1).nextBytes(chunk);
+        try (OutputStream out = new FileOutputStream(source)) {
+            for (int written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+
+        plugin = new BackgroundDownload();
+        download = PluginAccess.createDownload("https://example.com/file", target, null);
+        copyFile = PluginAccess.copyFile(plugin);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTarget() {
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        source.delete();
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Benchmark
+    public void channelTransfer() throws Throwable {
+        copyFile.invokeExact(download, source, target);
+    }
+
+    @Benchmark
+    public void streamWith16MbBuffer() throws IOException {
+        try (InputStream from = new FileInputStream(source); OutputStream to = new FileOutputStream(target)) {
+            byte[] buf = new byte[STREAM_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = from.read(buf)) > 0) {
+                to.write(buf, 0, bytesRead);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.app.DownloadManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * Matching a new download against N existing DownloadManager rows: a lookup in ExistingDownloadIndex against the
+ * scan of the cursor which was done for every started download before. The uri being looked up matches the last row,
+ * by uri and by the part matched with uriMatcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExistingDownloadIndexBenchmark {
+
+    private static final String URI_MATCHER = "[^/?]+\\.bin";
+
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    private ExistingDownloadIndex index;
+    private MatrixCursor cursor;
+    private Pattern pattern;
+    private String uri;
+    private String signedUri;
+
+    @Setup
+    public void setUp() {
+        index = new ExistingDownloadIndex();
+        cursor = new MatrixCursor(new String[]{DownloadManager.COLUMN_ID, DownloadManager.COLUMN_URI,
+                DownloadManager.COLUMN_LOCAL_URI});
+        for (int i = 0; i < rows; i++) {
+            String rowUri = "https://cdn.example.com/files/" + i + ".bin?signature=" + Integer.toHexString(i * 31);
+            String localUri = "file:///storage/emulated/0/Android/data/app/cache/" + i + ".bin";
+            index.add(i, rowUri, localUri);
+            cursor.addRow(new Object[]{(long) i, rowUri, localUri});
+        }
+        pattern = Pattern.compile(URI_MATCHER);
+        uri = "https://cdn.example.com/files/" + (rows - 1) + ".bin?signature=" + Integer.toHexString((rows - 1) * 31);
+        // same file, different signature: only matches by uriMatcher
+        signedUri = "https://cdn.example.com/files/" + (rows - 1) + ".bin?signature=renewed";
+        // build the matcher groups outside of the measurement, like the first attach of a session does
+        index.find(signedUri, URI_MATCHER);
+    }
+
+    @Benchmark
+    public Object indexByUri() {
+        return index.find(uri, null);
+    }
+
+    @Benchmark
+    public Object indexByUriMatcher() {
+        return index.find(signedUri, URI_MATCHER);
+    }
+
+    @Benchmark
+    public long cursorScanByUri() {
+        return scan(cursor, uri, null);
+    }
+
+    @Benchmark
+    public long cursorScanByUriMatcher() {
+        return scan(cursor, signedUri, pattern);
+    }
+
+    private static long scan(Cursor cur, String uri, Pattern pattern) {
+        int idxId = cur.getColumnIndex(DownloadManager.COLUMN_ID);
+        int idxUri = cur.getColumnIndex(DownloadManager.COLUMN_URI);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            String existingDownloadUri = cur.getString(idxUri);
+            boolean uriMatches = false;
+            if (pattern != null) {
+                Matcher mForExistingUri = pattern.matcher(existingDownloadUri);
+                Matcher mForNewUri = pattern.matcher(uri);
+                uriMatches = mForExistingUri.find() && mForNewUri.find()
+                        && mForExistingUri.group().equals(mForNewUri.group());
+            }
+            if (uriMatches || uri.equals(existingDownloadUri)) {
+                return cur.getLong(idxId);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Reaches the private parts of the plugin the benchmarks measure, so they run the shipped code rather than a copy.
+ */
+final class PluginAccess {
+
+    static final CordovaWebView DISCARDING_WEB_VIEW = new CordovaWebView() {
+        @Override
+        public org.apache.cordova.ICordovaCookieManager getCookieManager() {
+            return url -> null;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult cr, String callbackId) {
+            // results are not delivered anywhere
+        }
+    };
+
+    private static final Class<?> DOWNLOAD;
+
+    static {
+        try {
+            DOWNLOAD = Class.forName(BackgroundDownload.class.getName() + "$Download");
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PluginAccess() {
+    }
+
+    /**
+     * @return a BackgroundDownload.Download with the arguments of startAsync
+     */
+    static Object createDownload(String uri, File target, JSONObject options) throws Exception {
+        Method create = DOWNLOAD.getDeclaredMethod("create", JSONArray.class, CallbackContext.class);
+        create.setAccessible(true);
+        JSONArray args = new JSONArray();
+        args.put(uri).put("file://" + target.getAbsolutePath()).put(JSONObject.NULL).put(JSONObject.NULL)
+                .put(JSONObject.NULL).put(options != null ? options : JSONObject.NULL);
+        return create.invoke(null, args, new CallbackContext("benchmark", DISCARDING_WEB_VIEW) {
+            @Override
+            public void sendPluginResult(PluginResult pluginResult) {
+                // a progress callback is never finished, the real one would drop later results
+            }
+        });
+    }
+
+    /**
+     * @return copyFile(Download, File, File) of the plugin, bound to the plugin and typed (Object, File, File)void
+     */
+    static MethodHandle copyFile(BackgroundDownload plugin) throws Exception {
+        return bind(plugin, "copyFile", DOWNLOAD, File.class, File.class)
+                .asType(MethodType.methodType(void.class, Object.class, File.class, File.class));
+    }
+
+    /**
+     * @return updateProgress(Download, int status, int reason, long bytesDownloaded, long bytesTotal) of the plugin,
+     * bound to the plugin and typed (Object, int, int, long, long)void
+     */
+    static MethodHandle updateProgress(BackgroundDownload plugin) throws Exception {
+        return bind(plugin, "updateProgress", DOWNLOAD, int.class, int.class, long.class, long.class)
+                .asType(MethodType.methodType(void.class, Object.class, int.class, int.class, long.class,
+                        long.class));
+    }
+
+    private static MethodHandle bind(BackgroundDownload plugin, String name, Class<?>... parameterTypes)
+            throws Exception {
+        Method method = BackgroundDownload.class.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).bindTo(plugin);
+    }
+}
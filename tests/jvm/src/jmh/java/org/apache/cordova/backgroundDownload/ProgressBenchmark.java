@@ -0,0 +1,89 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.app.DownloadManager;
+
+/**
+ * Serializing a progress update for the bridge. reportedUpdate runs the update path of the plugin for a download
+ * which made progress, unchangedTick one for a download which did not, which must stay cheap and allocation free.
+ * freshObjects is the previous approach of building new JSON objects for every update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgressBenchmark {
+
+    private static final long TOTAL_BYTES = 1L << 40;
+
+    private Object download;
+    private MethodHandle updateProgress;
+    private long bytesReceived;
+
+    @Setup
+    public void setUp() throws Throwable {
+        download = PluginAccess.createDownload("https://example.com/file", new File("/tmp/target"),
+                new JSONObject().put("progressDelta", 1));
+        updateProgress = PluginAccess.updateProgress(new BackgroundDownload());
+        // the first update is always reported
+        updateProgress.invokeExact(download, DownloadManager.STATUS_RUNNING, 0, bytesReceived, TOTAL_BYTES);
+    }
+
+    @Benchmark
+    public void reportedUpdate() throws Throwable {
+        bytesReceived += 65536;
+        updateProgress.invokeExact(download, DownloadManager.STATUS_RUNNING, 0, bytesReceived, TOTAL_BYTES);
+    }
+
+    @Benchmark
+    public void unchangedTick() throws Throwable {
+        updateProgress.invokeExact(download, DownloadManager.STATUS_RUNNING, 0, bytesReceived, TOTAL_BYTES);
+    }
+
+    @Benchmark
+    public PluginResult freshObjects() throws JSONException {
+        bytesReceived += 65536;
+        JSONObject progress = new JSONObject();
+        progress.put("bytesReceived", bytesReceived);
+        progress.put("totalBytesToReceive", TOTAL_BYTES);
+        progress.put("throughput", 1048576);
+        progress.put("eta", (TOTAL_BYTES - bytesReceived) / 1048576);
+        progress.put("attempt", 1);
+        JSONObject obj = new JSONObject();
+        obj.put("progress", progress);
+        PluginResult progressUpdate = new PluginResult(PluginResult.Status.OK, obj);
+        progressUpdate.setKeepCallback(true);
+        return progressUpdate;
+    }
+}
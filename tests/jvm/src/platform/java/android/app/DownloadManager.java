@@ -0,0 +1,333 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/**
+ * Stand-in for the system download service. Downloads run over HttpURLConnection on background threads into the
+ * destination of the request. Like on a device, rows are kept until removed, removing a row stops its download and
+ * deletes its file, observers of content://downloads/my_downloads are notified of changes and ACTION_DOWNLOAD_COMPLETE
+ * is broadcast when a download succeeds or fails. Network and power policies of requests are not enforced.
+ */
+public class DownloadManager {
+
+    public static final String ACTION_DOWNLOAD_COMPLETE = "android.intent.action.DOWNLOAD_COMPLETE";
+    public static final String EXTRA_DOWNLOAD_ID = "extra_download_id";
+
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_URI = "uri";
+    public static final String COLUMN_LOCAL_URI = "local_uri";
+    public static final String COLUMN_STATUS = "status";
+    public static final String COLUMN_REASON = "reason";
+    public static final String COLUMN_BYTES_DOWNLOADED_SO_FAR = "bytes_so_far";
+    public static final String COLUMN_TOTAL_SIZE_BYTES = "total_size";
+
+    public static final int STATUS_PENDING = 1;
+    public static final int STATUS_RUNNING = 2;
+    public static final int STATUS_PAUSED = 4;
+    public static final int STATUS_SUCCESSFUL = 8;
+    public static final int STATUS_FAILED = 16;
+
+    public static final int ERROR_UNKNOWN = 1000;
+    public static final int ERROR_FILE_ERROR = 1001;
+    public static final int ERROR_UNHANDLED_HTTP_CODE = 1002;
+    public static final int ERROR_HTTP_DATA_ERROR = 1004;
+    public static final int ERROR_TOO_MANY_REDIRECTS = 1005;
+    public static final int ERROR_INSUFFICIENT_SPACE = 1006;
+    public static final int ERROR_DEVICE_NOT_FOUND = 1007;
+    public static final int ERROR_CANNOT_RESUME = 1008;
+    public static final int ERROR_FILE_ALREADY_EXISTS = 1009;
+
+    public static final int PAUSED_WAITING_TO_RETRY = 1;
+    public static final int PAUSED_WAITING_FOR_NETWORK = 2;
+    public static final int PAUSED_QUEUED_FOR_WIFI = 3;
+    public static final int PAUSED_UNKNOWN = 4;
+
+    private static final Uri CONTENT_URI = Uri.parse("content://downloads/my_downloads");
+    private static final String[] COLUMNS = {COLUMN_ID, COLUMN_TITLE, COLUMN_URI, COLUMN_LOCAL_URI, COLUMN_STATUS,
+            COLUMN_REASON, COLUMN_BYTES_DOWNLOADED_SO_FAR, COLUMN_TOTAL_SIZE_BYTES};
+    private static final int BUFFER_SIZE = 65536;
+
+    public static class Request {
+
+        public static final int NETWORK_MOBILE = 1;
+        public static final int NETWORK_WIFI = 2;
+        public static final int VISIBILITY_VISIBLE = 0;
+        public static final int VISIBILITY_VISIBLE_NOTIFY_COMPLETED = 1;
+        public static final int VISIBILITY_HIDDEN = 2;
+
+        private final Uri uri;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private Uri destination;
+        private CharSequence title;
+
+        public Request(Uri uri) {
+            this.uri = uri;
+        }
+
+        public Request addRequestHeader(String header, String value) {
+            headers.put(header, value);
+            return this;
+        }
+
+        public Request setDestinationUri(Uri uri) {
+            this.destination = uri;
+            return this;
+        }
+
+        public Request setTitle(CharSequence title) {
+            this.title = title;
+            return this;
+        }
+
+        public Request setVisibleInDownloadsUi(boolean isVisible) {
+            return this;
+        }
+
+        public Request setNotificationVisibility(int visibility) {
+            return this;
+        }
+
+        public Request setAllowedNetworkTypes(int flags) {
+            return this;
+        }
+
+        public Request setAllowedOverRoaming(boolean allowed) {
+            return this;
+        }
+
+        public Request setAllowedOverMetered(boolean allow) {
+            return this;
+        }
+
+        public Request setRequiresCharging(boolean requiresCharging) {
+            return this;
+        }
+
+        public Request setRequiresDeviceIdle(boolean requiresDeviceIdle) {
+            return this;
+        }
+    }
+
+    public static class Query {
+
+        private long[] ids;
+        private int statusFlags;
+
+        public Query setFilterById(long... ids) {
+            this.ids = ids;
+            return this;
+        }
+
+        public Query setFilterByStatus(int flags) {
+            this.statusFlags = flags;
+            return this;
+        }
+
+        boolean matches(Row row) {
+            if (statusFlags != 0 && (row.status & statusFlags) == 0) {
+                return false;
+            }
+            if (ids == null) {
+                return true;
+            }
+            for (long id : ids) {
+                if (id == row.id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Row {
+
+        private final long id;
+        private final Request request;
+        private volatile int status = STATUS_PENDING;
+        private volatile int reason;
+        private volatile long bytesSoFar;
+        private volatile long totalSize = -1;
+        private volatile boolean isRemoved;
+        private boolean isRunning = true;
+
+        Row(long id, Request request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        Object[] toValues() {
+            String localUri = request.destination != null ? request.destination.toString() : null;
+            return new Object[]{id, request.title != null ? request.title.toString() : null,
+                    request.uri.toString(), localUri, status, reason, bytesSoFar, totalSize};
+        }
+    }
+
+    private final Context context;
+    private final LinkedHashMap<Long, Row> rows = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "DownloadManager");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long nextId = 1;
+
+    public DownloadManager(Context context) {
+        this.context = context;
+    }
+
+    public long enqueue(Request request) {
+        final Row row;
+        synchronized (this) {
+            row = new Row(nextId++, request);
+            rows.put(row.id, row);
+        }
+        executor.execute(() -> run(row));
+        notifyChange();
+        return row.id;
+    }
+
+    public int remove(long... ids) {
+        int removed = 0;
+        for (long id : ids) {
+            Row row;
+            boolean isRunning;
+            synchronized (this) {
+                row = rows.remove(id);
+                if (row == null) {
+                    continue;
+                }
+                row.isRemoved = true;
+                isRunning = row.isRunning;
+            }
+            removed++;
+            // a running download deletes its file when it stops
+            if (!isRunning) {
+                deleteDestination(row);
+            }
+        }
+        if (removed > 0) {
+            notifyChange();
+        }
+        return removed;
+    }
+
+    public Cursor query(Query query) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        synchronized (this) {
+            for (Row row : rows.values()) {
+                if (query.matches(row)) {
+                    cursor.addRow(row.toValues());
+                }
+            }
+        }
+        return cursor;
+    }
+
+    private void run(Row row) {
+        row.status = STATUS_RUNNING;
+        notifyChange();
+
+        HttpURLConnection connection = null;
+        File file = new File(row.request.destination.getPath());
+        try {
+            if (file.exists()) {
+                finish(row, STATUS_FAILED, ERROR_FILE_ALREADY_EXISTS);
+                return;
+            }
+
+            connection = (HttpURLConnection) new URL(row.request.uri.toString()).openConnection();
+            for (Map.Entry<String, String> header : row.request.headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                finish(row, STATUS_FAILED, responseCode >= 400 ? responseCode : ERROR_UNHANDLED_HTTP_CODE);
+                return;
+            }
+            row.totalSize = connection.getContentLengthLong();
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(file)) {
+                int bytesRead;
+                while (!row.isRemoved && (bytesRead = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, bytesRead);
+                    row.bytesSoFar += bytesRead;
+                    notifyChange();
+                }
+            }
+            if (row.totalSize >= 0 && row.bytesSoFar != row.totalSize && !row.isRemoved) {
+                finish(row, STATUS_FAILED, ERROR_HTTP_DATA_ERROR);
+                return;
+            }
+            finish(row, STATUS_SUCCESSFUL, 0);
+        } catch (IOException e) {
+            finish(row, STATUS_FAILED, ERROR_HTTP_DATA_ERROR);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void finish(Row row, int status, int reason) {
+        boolean isRemoved;
+        synchronized (this) {
+            row.reason = reason;
+            row.status = status;
+            row.isRunning = false;
+            isRemoved = row.isRemoved;
+        }
+        if (isRemoved) {
+            deleteDestination(row);
+            return;
+        }
+        notifyChange();
+        context.sendBroadcast(new Intent(ACTION_DOWNLOAD_COMPLETE).putExtra(EXTRA_DOWNLOAD_ID, row.id));
+    }
+
+    private static void deleteDestination(Row row) {
+        if (row.request.destination != null) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(row.request.destination.getPath()).delete();
+        }
+    }
+
+    private void notifyChange() {
+        context.getContentResolver().notifyChange(CONTENT_URI, null);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.content;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+
+/**
+ * Stand-in for android.content.ContentResolver, only observers are supported. Changes are dispatched on the main
+ * thread of the context.
+ */
+public class ContentResolver {
+
+    private static class Registration {
+
+        private final String uri;
+        private final boolean notifyForDescendants;
+        private final ContentObserver observer;
+
+        Registration(Uri uri, boolean notifyForDescendants, ContentObserver observer) {
+            this.uri = uri.toString();
+            this.notifyForDescendants = notifyForDescendants;
+            this.observer = observer;
+        }
+
+        boolean matches(String changed) {
+            return uri.equals(changed) || (notifyForDescendants && changed.startsWith(uri + "/"));
+        }
+    }
+
+    private final Context context;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    public ContentResolver(Context context) {
+        this.context = context;
+    }
+
+    public final void registerContentObserver(Uri uri, boolean notifyForDescendants, ContentObserver observer) {
+        registrations.add(new Registration(uri, notifyForDescendants, observer));
+    }
+
+    public final void unregisterContentObserver(ContentObserver observer) {
+        for (Registration registration : registrations) {
+            if (registration.observer == observer) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer) {
+        String changed = uri.toString();
+        for (Registration registration : registrations) {
+            if (registration.observer != observer && registration.matches(changed)) {
+                context.runOnMainThread(() -> registration.observer.dispatchChange(false, uri));
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.content;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.DownloadManager;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.storage.StorageManager;
+
+/**
+ * Stand-in for android.content.Context. The app directories are created below a root directory, the system services
+ * are the stand-ins of this package and broadcasts are delivered on a single main thread, like on a device.
+ */
+public class Context {
+
+    public static final String DOWNLOAD_SERVICE = "download";
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String BATTERY_SERVICE = "batterymanager";
+    public static final String STORAGE_SERVICE = "storage";
+    public static final int RECEIVER_EXPORTED = 0x2;
+
+    private static class Registration {
+
+        private final BroadcastReceiver receiver;
+        private final IntentFilter filter;
+
+        Registration(BroadcastReceiver receiver, IntentFilter filter) {
+            this.receiver = receiver;
+            this.filter = filter;
+        }
+    }
+
+    private final File filesDir;
+    private final File cacheDir;
+    private final File externalFilesDir;
+    private final File externalCacheDir;
+    private final Map<String, Object> services = new ConcurrentHashMap<>();
+    private final List<Registration> receivers = new CopyOnWriteArrayList<>();
+    private final ContentResolver contentResolver = new ContentResolver(this);
+    private final ExecutorService mainThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Context(File root) {
+        filesDir = mkdirs(new File(root, "files"));
+        cacheDir = mkdirs(new File(root, "cache"));
+        externalFilesDir = mkdirs(new File(root, "external/files"));
+        externalCacheDir = mkdirs(new File(root, "external/cache"));
+        services.put(DOWNLOAD_SERVICE, new DownloadManager(this));
+        services.put(CONNECTIVITY_SERVICE, new ConnectivityManager());
+        services.put(BATTERY_SERVICE, new BatteryManager());
+        services.put(STORAGE_SERVICE, new StorageManager());
+    }
+
+    private static File mkdirs(File dir) {
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        return dir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public File getExternalCacheDir() {
+        return externalCacheDir;
+    }
+
+    public File[] getExternalCacheDirs() {
+        return new File[]{externalCacheDir};
+    }
+
+    public File[] getExternalFilesDirs(String type) {
+        return new File[]{type == null ? externalFilesDir : mkdirs(new File(externalFilesDir, type))};
+    }
+
+    public Object getSystemService(String name) {
+        return services.get(name);
+    }
+
+    public <T> T getSystemService(Class<T> serviceClass) {
+        for (Object service : services.values()) {
+            if (serviceClass.isInstance(service)) {
+                return serviceClass.cast(service);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Not part of the Android API, replaces a system service.
+     */
+    public void setSystemService(String name, Object service) {
+        services.put(name, service);
+    }
+
+    public ContentResolver getContentResolver() {
+        return contentResolver;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        receivers.add(new Registration(receiver, filter));
+        return null;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter, int flags) {
+        return registerReceiver(receiver, filter);
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        boolean isRegistered = false;
+        for (Registration registration : receivers) {
+            if (registration.receiver == receiver) {
+                receivers.remove(registration);
+                isRegistered = true;
+            }
+        }
+        if (!isRegistered) {
+            throw new IllegalArgumentException("Receiver not registered: " + receiver);
+        }
+    }
+
+    public void sendBroadcast(Intent intent) {
+        for (Registration registration : receivers) {
+            if (registration.filter.hasAction(intent.getAction())) {
+                runOnMainThread(() -> registration.receiver.onReceive(this, intent));
+            }
+        }
+    }
+
+    /**
+     * Not part of the Android API, runs the task on the thread which delivers broadcasts and content changes.
+     */
+    public void runOnMainThread(Runnable task) {
+        mainThread.execute(task);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.net;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stand-in for android.net.ConnectivityManager, connected to an unmetered wifi network unless told otherwise. The
+ * deprecated APIs are marked like in the Android SDK, so using them without a reason shows up as a warning.
+ */
+public class ConnectivityManager {
+
+    @Deprecated
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+    @Deprecated
+    public static final int TYPE_MOBILE = 0;
+    @Deprecated
+    public static final int TYPE_WIFI = 1;
+
+    /**
+     * Stand-in for android.net.ConnectivityManager.NetworkCallback.
+     */
+    public static class NetworkCallback {
+
+        public void onAvailable(Network network) {
+        }
+
+        public void onLost(Network network) {
+        }
+
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+        }
+    }
+
+    private final List<NetworkCallback> callbacks = new CopyOnWriteArrayList<>();
+    private int netIds = 100;
+    private Network activeNetwork = new Network(netIds);
+    private NetworkCapabilities activeCapabilities = new NetworkCapabilities(
+            new int[]{NetworkCapabilities.TRANSPORT_WIFI},
+            new int[]{NetworkCapabilities.NET_CAPABILITY_NOT_METERED, NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING});
+
+    public synchronized Network getActiveNetwork() {
+        return activeNetwork;
+    }
+
+    public synchronized NetworkCapabilities getNetworkCapabilities(Network network) {
+        return network != null && network == activeNetwork ? activeCapabilities : null;
+    }
+
+    @Deprecated
+    public synchronized NetworkInfo getActiveNetworkInfo() {
+        if (activeCapabilities == null) {
+            return null;
+        }
+        int type = activeCapabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) ? TYPE_MOBILE : TYPE_WIFI;
+        return new NetworkInfo(type, true,
+                !activeCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING));
+    }
+
+    public synchronized boolean isActiveNetworkMetered() {
+        return activeCapabilities != null
+                && !activeCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    }
+
+    /**
+     * Like on a device the callback is called for the current default network right away.
+     */
+    public void registerDefaultNetworkCallback(NetworkCallback callback) {
+        callbacks.add(callback);
+        Network network;
+        NetworkCapabilities capabilities;
+        synchronized (this) {
+            network = activeNetwork;
+            capabilities = activeCapabilities;
+        }
+        if (network != null) {
+            callback.onAvailable(network);
+            callback.onCapabilitiesChanged(network, capabilities);
+        }
+    }
+
+    public void unregisterNetworkCallback(NetworkCallback callback) {
+        callbacks.remove(callback);
+    }
+
+    /**
+     * Not part of the Android API, switches the default network and notifies the callbacks on the calling thread.
+     *
+     * @param capabilities of the new default network, null when offline
+     */
+    public void setDefaultNetwork(NetworkCapabilities capabilities) {
+        Network lost;
+        Network network = null;
+        synchronized (this) {
+            lost = activeNetwork;
+            if (capabilities != null) {
+                network = new Network(++netIds);
+            }
+            activeNetwork = network;
+            activeCapabilities = capabilities;
+        }
+        for (NetworkCallback callback : callbacks) {
+            if (lost != null) {
+                callback.onLost(lost);
+            }
+            if (network != null) {
+                callback.onAvailable(network);
+                callback.onCapabilitiesChanged(network, capabilities);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.net;
+
+/**
+ * Stand-in for android.net.NetworkCapabilities, with the transports and capabilities the plugin checks.
+ */
+public class NetworkCapabilities {
+
+    public static final int TRANSPORT_CELLULAR = 0;
+    public static final int TRANSPORT_WIFI = 1;
+    public static final int TRANSPORT_BLUETOOTH = 2;
+    public static final int TRANSPORT_ETHERNET = 3;
+    public static final int TRANSPORT_VPN = 4;
+    public static final int NET_CAPABILITY_NOT_METERED = 11;
+    public static final int NET_CAPABILITY_NOT_ROAMING = 18;
+
+    private final long transports;
+    private final long capabilities;
+
+    /**
+     * Not part of the Android API.
+     */
+    public NetworkCapabilities(int[] transports, int[] capabilities) {
+        this.transports = toMask(transports);
+        this.capabilities = toMask(capabilities);
+    }
+
+    private static long toMask(int[] values) {
+        long mask = 0;
+        for (int value : values) {
+            mask |= 1L << value;
+        }
+        return mask;
+    }
+
+    public boolean hasTransport(int transportType) {
+        return (transports & (1L << transportType)) != 0;
+    }
+
+    public boolean hasCapability(int capability) {
+        return (capabilities & (1L << capability)) != 0;
+    }
+}
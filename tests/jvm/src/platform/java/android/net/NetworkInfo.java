@@ -0,0 +1,48 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.net;
+
+/**
+ * Stand-in for android.net.NetworkInfo, deprecated since API level 29 like the original.
+ */
+@Deprecated
+public class NetworkInfo {
+
+    private final int type;
+    private final boolean isConnected;
+    private final boolean isRoaming;
+
+    public NetworkInfo(int type, boolean isConnected, boolean isRoaming) {
+        this.type = type;
+        this.isConnected = isConnected;
+        this.isRoaming = isRoaming;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public boolean isRoaming() {
+        return isRoaming;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stand-in for android.net.Uri, parses hierarchical uris like "file:///path" and "https://host/path" the way the
+ * Android implementation does: leniently, keeping the original string.
+ */
+public abstract class Uri {
+
+    private static final String HEX = "0123456789ABCDEF";
+
+    public static Uri parse(String uriString) {
+        return new StringUri(uriString);
+    }
+
+    public static Uri fromFile(File file) {
+        return parse("file://" + encode(file.getAbsolutePath(), "/"));
+    }
+
+    public abstract String getScheme();
+
+    public abstract String getHost();
+
+    /**
+     * @return the decoded path
+     */
+    public abstract String getPath();
+
+    public abstract String getLastPathSegment();
+
+    /**
+     * Percent-encodes everything except letters, digits, "_-!.~'()*" and the allowed characters.
+     */
+    public static String encode(String s, String allow) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "_-!.~'()*".indexOf(c) >= 0 || (allow != null && allow.indexOf(c) >= 0)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HEX.charAt((b >> 4) & 0xF)).append(HEX.charAt(b & 0xF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    public static String decode(String s) {
+        if (s == null || s.indexOf('%') < 0) {
+            return s;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length()) {
+                bytes.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class StringUri extends Uri {
+
+        private final String uriString;
+        private final String scheme;
+        private final String authority;
+        private final String path;
+
+        StringUri(String uriString) {
+            if (uriString == null) {
+                throw new NullPointerException("uriString");
+            }
+            this.uriString = uriString;
+
+            int end = indexOfAny(uriString, "?#", 0);
+            int colon = uriString.indexOf(':');
+            int slash = uriString.indexOf('/');
+            boolean hasScheme = colon > 0 && colon < end && (slash < 0 || colon < slash);
+            scheme = hasScheme ? uriString.substring(0, colon) : null;
+
+            int rest = hasScheme ? colon + 1 : 0;
+            if (uriString.startsWith("//", rest)) {
+                int authorityEnd = indexOfAny(uriString, "/?#", rest + 2);
+                authority = uriString.substring(rest + 2, authorityEnd);
+                rest = authorityEnd;
+            } else {
+                authority = null;
+            }
+            path = uriString.substring(rest, Math.max(rest, end));
+        }
+
+        private static int indexOfAny(String s, String chars, int from) {
+            for (int i = from; i < s.length(); i++) {
+                if (chars.indexOf(s.charAt(i)) >= 0) {
+                    return i;
+                }
+            }
+            return s.length();
+        }
+
+        @Override
+        public String getScheme() {
+            return scheme;
+        }
+
+        @Override
+        public String getHost() {
+            if (authority == null) {
+                return null;
+            }
+            String host = authority.substring(authority.lastIndexOf('@') + 1);
+            int port = host.lastIndexOf(':');
+            if (port >= 0 && host.indexOf(']', port) < 0) {
+                host = host.substring(0, port);
+            }
+            return host.isEmpty() ? null : decode(host);
+        }
+
+        @Override
+        public String getPath() {
+            return path.isEmpty() && authority == null && scheme != null ? null : decode(path);
+        }
+
+        @Override
+        public String getLastPathSegment() {
+            String[] segments = path.split("/");
+            for (int i = segments.length - 1; i >= 0; i--) {
+                if (!segments[i].isEmpty()) {
+                    return decode(segments[i]);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StringUri && uriString.equals(((StringUri) o).uriString);
+        }
+
+        @Override
+        public int hashCode() {
+            return uriString.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return uriString;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.os.storage;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+/**
+ * Stand-in for android.os.storage.StorageManager. A volume is identified by the st_dev of its paths, allocatable bytes
+ * are the usable space of the volume, optionally capped for tests which need a full disk.
+ */
+public class StorageManager {
+
+    private final Map<UUID, File> volumes = new ConcurrentHashMap<>();
+    private volatile long allocatableLimit = Long.MAX_VALUE;
+
+    public UUID getUuidForPath(File path) throws IOException {
+        try {
+            UUID uuid = new UUID(0, Os.stat(path.getPath()).st_dev);
+            volumes.putIfAbsent(uuid, path);
+            return uuid;
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public long getAllocatableBytes(UUID storageUuid) throws IOException {
+        File path = volumes.get(storageUuid);
+        if (path == null) {
+            throw new IOException("Unknown volume " + storageUuid);
+        }
+        return Math.min(allocatableLimit, path.getUsableSpace());
+    }
+
+    public void allocateBytes(UUID storageUuid, long bytes) throws IOException {
+        if (getAllocatableBytes(storageUuid) < bytes) {
+            throw new IOException("Not enough space on " + storageUuid + " for " + bytes + " bytes");
+        }
+    }
+
+    public void allocateBytes(FileDescriptor fd, long bytes) throws IOException {
+        if (allocatableLimit < bytes) {
+            throw new IOException("Not enough space for " + bytes + " bytes");
+        }
+    }
+
+    /**
+     * Not part of the Android API, limits the allocatable bytes of every volume.
+     */
+    public void setAllocatableLimit(long bytes) {
+        this.allocatableLimit = bytes;
+    }
+}
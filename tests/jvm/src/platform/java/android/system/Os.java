@@ -0,0 +1,73 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.system;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Stand-in for android.system.Os, implemented with java.nio.file. The errno values are the Linux ones.
+ */
+public final class Os {
+
+    private static final int ENOENT = 2;
+    private static final int EIO = 5;
+    private static final int EEXIST = 17;
+    private static final int EXDEV = 18;
+
+    private Os() {
+    }
+
+    public static void link(String oldPath, String newPath) throws ErrnoException {
+        try {
+            Files.createLink(Paths.get(newPath), Paths.get(oldPath));
+        } catch (FileAlreadyExistsException e) {
+            throw new ErrnoException("link", EEXIST, e);
+        } catch (NoSuchFileException e) {
+            throw new ErrnoException("link", ENOENT, e);
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            throw new ErrnoException("link", EXDEV, e);
+        } catch (IOException e) {
+            throw new ErrnoException("link", EIO, e);
+        }
+    }
+
+    public static StructStat stat(String path) throws ErrnoException {
+        Path file = Paths.get(path);
+        try {
+            Object dev;
+            try {
+                dev = Files.getAttribute(file, "unix:dev");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // no unix attributes, one device per file store
+                dev = Files.getFileStore(file).name().hashCode();
+            }
+            return new StructStat(((Number) dev).longValue(), Files.size(file));
+        } catch (NoSuchFileException e) {
+            throw new ErrnoException("stat", ENOENT, e);
+        } catch (IOException e) {
+            throw new ErrnoException("stat", EIO, e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Progress implements ArchiveExtractor.Listener {
+
+        private volatile boolean isCanceled;
+        private long bytesRead;
+        private long totalBytes;
+        private int updates;
+
+        @Override
+        public boolean isCanceled() {
+            return isCanceled;
+        }
+
+        @Override
+        public void onProgress(long bytesRead, long totalBytes) {
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            updates++;
+        }
+    }
+
+    private File zip(String... namesAndContents) throws IOException {
+        File archive = folder.newFile();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                if (namesAndContents[i + 1] != null) {
+                    zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                }
+                zip.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void extractsZipIntoDirectory() throws IOException {
+        File archive = zip("a.txt", "first", "dir/", null, "dir/sub/b.txt", "second");
+        File target = new File(folder.getRoot(), "out");
+        Progress progress = new Progress();
+
+        ArchiveExtractor.extract(ArchiveExtractor.FORMAT_ZIP, archive, target, progress);
+
+        assertEquals("first", read(new File(target, "a.txt")));
+        assertEquals("second", read(new File(target, "dir/sub/b.txt")));
+        assertFalse(new File(target.getPath() + ".extracting").exists());
+        assertEquals(archive.length(), progress.totalBytes);
+        assertTrue(progress.bytesRead > 0);
+    }
+
+    @Test
+    public void decompressesGzipIntoFile() throws IOException {
+        byte[] content = LocalHttpServer.content(3 * 1048576, 1);
+        File archive = folder.newFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(archive))) {
+            out.write(content);
+        }
+        File target = new File(folder.getRoot(), "out.bin");
+        Progress progress = new Progress();
+
+        ArchiveExtractor.extract(ArchiveExtractor.FORMAT_GZIP, archive, target, progress);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // the compressed size decides the number of updates, random data does not compress
+        assertTrue(progress.updates >= 3);
+    }
+
+    @Test
+    public void replacesExistingTarget() throws IOException {
+        File target = folder.newFolder("out");
+        Files.write(new File(target, "stale.txt").toPath(), new byte[]{1});
+
+        ArchiveExtractor.extract(ArchiveExtractor.FORMAT_ZIP, zip("fresh.txt", "new"), target, new Progress());
+
+        assertFalse(new File(target, "stale.txt").exists());
+        assertEquals("new", read(new File(target, "fresh.txt")));
+    }
+
+    @Test
+    public void rejectsEntriesOutsideTarget() throws IOException {
+        File target = folder.newFolder("out");
+        Files.write(new File(target, "kept.txt").toPath(), new byte[]{1});
+        File archive = zip("ok.txt", "ok", "../escaped.txt", "bad");
+
+        try {
+            ArchiveExtractor.extract(ArchiveExtractor.FORMAT_ZIP, archive, target, new Progress());
+            fail("entry outside of the target was extracted");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        assertFalse(new File(folder.getRoot(), "escaped.txt").exists());
+        assertTrue(new File(target, "kept.txt").exists());
+        assertFalse(new File(target.getPath() + ".extracting").exists());
+    }
+
+    @Test
+    public void leavesTargetAsItWasWhenCanceled() throws IOException {
+        File target = folder.newFolder("out");
+        Files.write(new File(target, "kept.txt").toPath(), new byte[]{1});
+        Progress progress = new Progress();
+        progress.isCanceled = true;
+
+        try {
+            ArchiveExtractor.extract(ArchiveExtractor.FORMAT_ZIP, zip("a.txt", "a"), target, progress);
+            fail("canceled extraction completed");
+        } catch (InterruptedIOException expected) {
+            // expected
+        }
+
+        assertTrue(new File(target, "kept.txt").exists());
+        assertFalse(new File(target, "a.txt").exists());
+        assertFalse(new File(target.getPath() + ".extracting").exists());
+    }
+
+    @Test
+    public void rejectsDamagedGzip() throws IOException {
+        File archive = folder.newFile();
+        Files.write(archive.toPath(), "not gzip".getBytes(StandardCharsets.UTF_8));
+        File target = new File(folder.getRoot(), "out.bin");
+
+        try {
+            ArchiveExtractor.extract(ArchiveExtractor.FORMAT_GZIP, archive, target, new Progress());
+            fail("damaged archive was extracted");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertFalse(target.exists());
+    }
+}
@@ -0,0 +1,246 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.database.Cursor;
+
+import static org.apache.cordova.backgroundDownload.PluginFixture.options;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts and stops the same few downloads from many threads at once, so that starts race with stops, with each other
+ * and with the completion and finalization of earlier downloads of the same uri.
+ */
+public class BackgroundDownloadStressTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS = 40;
+    private static final int FILES = 6;
+    private static final int SIZE = 262144;
+
+    /**
+     * A start and the target it was given, every start gets its own target so its outcome can be checked on disk.
+     */
+    private static class Start {
+
+        final int file;
+        final File target;
+        final PluginFixture.Callback callback;
+
+        Start(int file, File target, PluginFixture.Callback callback) {
+            this.file = file;
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private PluginFixture fixture;
+    private final List<byte[]> contents = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalHttpServer();
+        // slow enough for stops to catch downloads in every state
+        server.setBandwidth(4 * SIZE);
+        for (int i = 0; i < FILES; i++) {
+            byte[] content = LocalHttpServer.content(SIZE, i);
+            server.put("/file" + i + ".bin", content);
+            contents.add(content);
+        }
+        fixture = new PluginFixture(folder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+        server.close();
+    }
+
+    private void hammer(int thread, List<Start> starts) throws Exception {
+        Random random = new Random(thread);
+        for (int i = 0; i < OPERATIONS; i++) {
+            int file = random.nextInt(FILES);
+            String uri = server.url("/file" + file + ".bin");
+            if (random.nextInt(3) == 0) {
+                fixture.stop(uri);
+            } else {
+                JSONObject options = random.nextBoolean() ? options("engine", "http", "segments", 2) : null;
+                File target = fixture.target("file" + file + "-" + thread + "-" + i + ".bin");
+                starts.add(new Start(file, target, fixture.start(uri, target, options)));
+            }
+            Thread.sleep(random.nextInt(5));
+        }
+    }
+
+    private static long getOutcomes(JSONObject metrics) throws JSONException {
+        return metrics.getLong("succeeded") + metrics.getLong("failed") + metrics.getLong("canceled");
+    }
+
+    private void assertNothingLeaked() {
+        Cursor cursor = ((DownloadManager) fixture.activity.getSystemService(Context.DOWNLOAD_SERVICE))
+                .query(new DownloadManager.Query());
+        assertEquals(0, cursor.getCount());
+        File[] tempFiles = fixture.activity.getExternalCacheDir().listFiles();
+        assertEquals(0, tempFiles != null ? tempFiles.length : 0);
+    }
+
+    @Test
+    public void keepsRegistryConsistentUnderConcurrentStartAndStop() throws Exception {
+        // holds finalization open for a moment, so stops also land while files are verified and moved
+        fixture.plugin.finalizationHook = uri -> {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        JSONObject before = fixture.getMetrics();
+        List<Start> starts = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            futures.add(threads.submit(() -> {
+                go.await();
+                hammer(thread, starts);
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        threads.shutdown();
+
+        // let the survivors finish, a download is unregistered right before its result is sent
+        fixture.awaitIdle();
+        long deadline = System.currentTimeMillis() + 10000;
+        JSONObject after;
+        long started;
+        int finished;
+        do {
+            Thread.sleep(20);
+            after = fixture.getMetrics();
+            started = after.getLong("started") - before.getLong("started");
+            finished = 0;
+            synchronized (starts) {
+                for (Start start : starts) {
+                    finished += start.callback.getFinalResults();
+                }
+            }
+        } while ((finished < started || getOutcomes(after) - getOutcomes(before) < started)
+                && System.currentTimeMillis() < deadline);
+
+        // duplicates of a running download get no result, every registered one exactly one
+        assertTrue(started > 0);
+        assertEquals(started, finished);
+        assertEquals(started, getOutcomes(after) - getOutcomes(before));
+
+        // a reported success left its target, anything else left none
+        for (Start start : starts) {
+            assertTrue(start.callback.getCallbackId(), start.callback.getFinalResults() <= 1);
+            if (start.callback.isSuccess()) {
+                assertTrue(start.target.toString(), start.target.exists());
+                assertArrayEquals(contents.get(start.file), Files.readAllBytes(start.target.toPath()));
+            } else {
+                assertFalse(start.target.toString(), start.target.exists());
+            }
+        }
+        assertNothingLeaked();
+
+        // and every uri can be downloaded again
+        fixture.plugin.finalizationHook = null;
+        server.setBandwidth(0);
+        for (int i = 0; i < FILES; i++) {
+            File target = fixture.target("file" + i + ".bin");
+            assertTrue(fixture.start(server.url("/file" + i + ".bin"), target, options("engine", "http"))
+                    .await().isSuccess());
+            assertArrayEquals(contents.get(i), Files.readAllBytes(target.toPath()));
+        }
+    }
+
+    private void stopDuringFinalization(JSONObject options) throws Exception {
+        String uri = server.url("/file0.bin");
+        File target = fixture.target("held.bin");
+        CountDownLatch finalizing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        fixture.plugin.finalizationHook = hookUri -> {
+            finalizing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        PluginFixture.Callback callback = fixture.start(uri, target, options);
+        assertTrue(finalizing.await(30, TimeUnit.SECONDS));
+        assertTrue(fixture.stop(uri).await().isSuccess());
+        // the stop only marks the download, the files are left to the finalizer
+        assertFalse(callback.await(200));
+        release.countDown();
+
+        callback.await();
+        assertEquals("\"CANCELED\"", callback.getFinalResult().getMessage());
+        assertFalse(target.exists());
+        fixture.awaitIdle();
+        assertNothingLeaked();
+    }
+
+    @Test
+    public void stopsDownloadManagerDownloadDuringFinalization() throws Exception {
+        stopDuringFinalization(null);
+    }
+
+    @Test
+    public void stopsInProcessDownloadDuringFinalization() throws Exception {
+        stopDuringFinalization(options("engine", "http"));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+
+import static org.apache.cordova.backgroundDownload.PluginFixture.options;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloads through the plugin, from execute to the callback, against the local server.
+ */
+public class BackgroundDownloadTest {
+
+    private static final int MB = 1048576;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private PluginFixture fixture;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalHttpServer();
+        fixture = new PluginFixture(folder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+        server.close();
+    }
+
+    private void assertNoTemporaryFiles() {
+        File[] files = fixture.activity.getExternalCacheDir().listFiles();
+        assertEquals(0, files != null ? files.length : 0);
+    }
+
+    @Test
+    public void downloadsWithDownloadManager() throws Exception {
+        byte[] content = LocalHttpServer.content(2 * MB, 1);
+        server.put("/dm.bin", content);
+        File target = fixture.target("dm.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/dm.bin"), target, null).await();
+
+        assertTrue(callback.isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        fixture.awaitIdle();
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void downloadsWithInProcessEngine() throws Exception {
+        byte[] content = LocalHttpServer.content(3 * MB, 2);
+        server.put("/http.bin", content);
+        // about two seconds, so several progress ticks see the transfer running
+        server.setBandwidth(MB / 2);
+        File target = fixture.target("http.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/http.bin"), target,
+                options("engine", "http", "segments", 3)).await();
+
+        assertTrue(callback.isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        List<JSONObject> progress = callback.getProgress();
+        assertFalse(progress.isEmpty());
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i).getLong("bytesReceived") >= progress.get(i - 1).getLong("bytesReceived"));
+        }
+        fixture.awaitIdle();
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void reportsHttpError() throws Exception {
+        File target = fixture.target("missing.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/missing.bin"), target,
+                options("engine", "http")).await();
+
+        assertFalse(callback.isSuccess());
+        assertFalse(target.exists());
+        fixture.awaitIdle();
+    }
+
+    @Test
+    public void stopsRunningDownload() throws Exception {
+        server.put("/slow.bin", LocalHttpServer.content(4 * MB, 3));
+        server.setBandwidth(MB);
+        File target = fixture.target("slow.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/slow.bin"), target, options("engine", "http"));
+        while (callback.getProgress().isEmpty()) {
+            Thread.sleep(20);
+        }
+        assertTrue(fixture.stop(server.url("/slow.bin")).await().isSuccess());
+
+        callback.await();
+        assertFalse(callback.isSuccess());
+        assertEquals("\"CANCELED\"", callback.getFinalResult().getMessage());
+        assertFalse(target.exists());
+        fixture.awaitIdle();
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void waitsForAllowedNetwork() throws Exception {
+        byte[] content = LocalHttpServer.content(MB, 6);
+        server.put("/wifi.bin", content);
+        File target = fixture.target("wifi.bin");
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) fixture.activity.getSystemService(Context.CONNECTIVITY_SERVICE);
+        // an unmetered network which is not Wi-Fi
+        connectivityManager.setDefaultNetwork(new NetworkCapabilities(
+                new int[]{NetworkCapabilities.TRANSPORT_ETHERNET},
+                new int[]{NetworkCapabilities.NET_CAPABILITY_NOT_METERED,
+                        NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING}));
+
+        PluginFixture.Callback callback = fixture.start(server.url("/wifi.bin"), target,
+                options("engine", "http", "allowedNetworks", new JSONArray().put("wifi")));
+        assertFalse(callback.await(500));
+        assertEquals(0, server.requests.get());
+
+        // a VPN over Wi-Fi reports both transports
+        connectivityManager.setDefaultNetwork(new NetworkCapabilities(
+                new int[]{NetworkCapabilities.TRANSPORT_WIFI, NetworkCapabilities.TRANSPORT_VPN},
+                new int[]{NetworkCapabilities.NET_CAPABILITY_NOT_METERED,
+                        NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING}));
+        assertTrue(callback.await().isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        fixture.awaitIdle();
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws Exception {
+        server.put("/digest.bin", LocalHttpServer.content(MB, 4));
+        File target = fixture.target("digest.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/digest.bin"), target,
+                options("engine", "http", "digest", options("algorithm", "sha-256",
+                        "value", String.format("%064d", 0)))).await();
+
+        assertFalse(callback.isSuccess());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception {
+        byte[] content = LocalHttpServer.content(MB, 5);
+        server.put("/flaky.bin", content);
+        server.setFaults(0, 0.5);
+        File target = fixture.target("flaky.bin");
+
+        PluginFixture.Callback callback = fixture.start(server.url("/flaky.bin"), target,
+                options("engine", "http", "retry", options("maxAttempts", 10, "baseDelay", 10,
+                        "maxDelay", 50))).await();
+
+        assertTrue(callback.isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() {
+        cacheDir = new File(folder.getRoot(), "cache");
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(0xFF ^ b);
+        }
+    }
+
+    @Test
+    public void keepsCachedContentApartFromDownloadAndTarget() throws IOException {
+        byte[] content = LocalHttpServer.content(100000, 1);
+        File downloaded = write("downloaded", content);
+        String hash = DownloadCache.sha256(downloaded);
+        DownloadCache cache = new DownloadCache(cacheDir);
+        cache.put("https://example.com/a", downloaded, hash, "\"1\"", null);
+        // the app may modify its files in place
+        flipByte(downloaded, 10);
+
+        File target = new File(folder.getRoot(), "target");
+        DownloadCache.Entry entry = cache.get("https://example.com/a");
+        assertTrue(cache.copyTo(entry, target));
+        assertArrayEquals(content, read(target));
+        flipByte(target, 20);
+
+        assertEquals(hash, DownloadCache.sha256(new File(cacheDir, hash)));
+        File[] files = cacheDir.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse(file.getName(), file.getName().endsWith(".part"));
+        }
+    }
+
+    @Test
+    public void hashesContentWhileStoringItWithoutKnownHash() throws IOException {
+        byte[] content = LocalHttpServer.content(200000, 5);
+        File downloaded = write("downloaded", content);
+        DownloadCache cache = new DownloadCache(cacheDir);
+        cache.put("https://example.com/a", downloaded, null, null, null);
+
+        DownloadCache.Entry entry = cache.get("https://example.com/a");
+        assertNotNull(entry);
+        assertEquals(DownloadCache.sha256(downloaded), entry.getHash());
+        assertArrayEquals(content, read(new File(cacheDir, entry.getHash())));
+    }
+
+    @Test
+    public void keepsEntriesAcrossInstances() throws IOException {
+        File downloaded = write("downloaded", LocalHttpServer.content(1000, 2));
+        String hash = DownloadCache.sha256(downloaded);
+        new DownloadCache(cacheDir).put("https://example.com/a", downloaded, hash, null, "yesterday");
+
+        DownloadCache.Entry entry = new DownloadCache(cacheDir).get("https://example.com/a");
+        assertNotNull(entry);
+        assertEquals(hash, entry.getHash());
+        assertTrue(entry.canRevalidate());
+        assertTrue(entry.isFresh(60000));
+    }
+
+    @Test
+    public void servesContentByHashForAnyUri() throws IOException {
+        byte[] content = LocalHttpServer.content(5000, 3);
+        File downloaded = write("downloaded", content);
+        String hash = DownloadCache.sha256(downloaded);
+        DownloadCache cache = new DownloadCache(cacheDir);
+        cache.put("https://mirror-a.example.com/file", downloaded, hash, null, null);
+
+        File target = new File(folder.getRoot(), "target");
+        assertTrue(cache.copyTo(hash, target));
+        assertArrayEquals(content, read(target));
+        assertFalse(cache.copyTo(String.format("%064d", 0), new File(folder.getRoot(), "other")));
+    }
+
+    @Test
+    public void dropsCorruptContentInsteadOfServingIt() throws IOException {
+        File downloaded = write("downloaded", LocalHttpServer.content(5000, 4));
+        String hash = DownloadCache.sha256(downloaded);
+        DownloadCache cache = new DownloadCache(new File(folder.getRoot(), "other-cache"));
+        cache.put("https://example.com/a", downloaded, hash, null, null);
+        flipByte(new File(new File(folder.getRoot(), "other-cache"), hash), 100);
+
+        File target = new File(folder.getRoot(), "target");
+        assertFalse(cache.copyTo(hash, target));
+        assertFalse(target.exists());
+        assertNull(cache.get("https://example.com/a"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverMaxSize() throws IOException {
+        DownloadCache cache = new DownloadCache(cacheDir);
+        cache.setMaxSize(25000);
+        for (int i = 0; i < 3; i++) {
+            File downloaded = write("downloaded" + i, LocalHttpServer.content(10000, 10 + i));
+            cache.put("https://example.com/" + i, downloaded, DownloadCache.sha256(downloaded), null, null);
+            assertTrue(downloaded.delete());
+        }
+
+        assertNull(cache.get("https://example.com/0"));
+        assertNotNull(cache.get("https://example.com/1"));
+        assertNotNull(cache.get("https://example.com/2"));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "journal.json");
+    }
+
+    private static DownloadJournal.Entry entry(String uri, String etag, String lastModified) {
+        HttpDownloadEngine.Checkpoint checkpoint = new HttpDownloadEngine.Checkpoint(etag, lastModified, 3000,
+                new HttpDownloadEngine.Segment[]{
+                        new HttpDownloadEngine.Segment(0, 1499, 1500),
+                        new HttpDownloadEngine.Segment(1500, 2999, 700)});
+        return new DownloadJournal.Entry(uri, "file:///target/" + uri.hashCode(), "/tmp/" + uri.hashCode(),
+                checkpoint);
+    }
+
+    @Test
+    public void keepsEntriesAcrossInstances() {
+        DownloadJournal journal = new DownloadJournal(file);
+        journal.put(entry("https://example.com/a", "\"1\"", null));
+        journal.put(entry("https://example.com/b", null, "Fri, 16 Oct 2026 10:00:00 GMT"));
+        journal.flush();
+
+        DownloadJournal reloaded = new DownloadJournal(file);
+        DownloadJournal.Entry a = reloaded.get("https://example.com/a");
+        assertNotNull(a);
+        assertEquals("file:///target/" + "https://example.com/a".hashCode(), a.getTargetFileUri());
+        assertEquals("\"1\"", a.getCheckpoint().getEtag());
+        assertNull(a.getCheckpoint().getLastModified());
+        assertEquals(3000, a.getCheckpoint().getTotalBytes());
+        assertEquals(2200, a.getCheckpoint().getBytesWritten());
+        HttpDownloadEngine.Segment second = a.getCheckpoint().getSegments()[1];
+        assertEquals(1500, second.getStart());
+        assertEquals(2999, second.getEnd());
+        assertEquals(700, second.getWritten());
+
+        DownloadJournal.Entry b = reloaded.get("https://example.com/b");
+        assertNull(b.getCheckpoint().getEtag());
+        assertEquals("Fri, 16 Oct 2026 10:00:00 GMT", b.getCheckpoint().getValidator());
+    }
+
+    @Test
+    public void persistsRemoval() {
+        DownloadJournal journal = new DownloadJournal(file);
+        journal.put(entry("https://example.com/a", "\"1\"", null));
+        journal.flush();
+        journal.remove("https://example.com/a");
+        journal.flush();
+
+        assertNull(new DownloadJournal(file).get("https://example.com/a"));
+    }
+
+    @Test
+    public void writesOnlyWhenChanged() {
+        DownloadJournal journal = new DownloadJournal(file);
+        journal.put(entry("https://example.com/a", "\"1\"", null));
+        journal.flush();
+        assertTrue(file.delete());
+
+        journal.flush();
+        assertFalse(file.exists());
+        journal.remove("https://example.com/unknown");
+        journal.flush();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void startsEmptyWhenDamaged() throws IOException {
+        Files.write(file.toPath(), "[{\"uri\": \"https://example.com/a\", \"segm".getBytes(StandardCharsets.UTF_8));
+
+        DownloadJournal journal = new DownloadJournal(file);
+        assertNull(journal.get("https://example.com/a"));
+
+        // the damaged file is replaced by the next flush
+        journal.put(entry("https://example.com/b", "\"2\"", null));
+        journal.flush();
+        assertNotNull(new DownloadJournal(file).get("https://example.com/b"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DownloadMetricsTest {
+
+    @Test
+    public void reportsOnlyCountOfEmptyHistogram() throws JSONException {
+        JSONObject json = new DownloadMetrics.Histogram().toJson();
+
+        assertEquals(0, json.getLong("count"));
+        assertFalse(json.has("p50"));
+        assertFalse(json.has("max"));
+    }
+
+    @Test
+    public void reportsQuantilesAsBucketUpperBounds() throws JSONException {
+        DownloadMetrics.Histogram histogram = new DownloadMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        JSONObject json = histogram.toJson();
+
+        assertEquals(100, json.getLong("count"));
+        assertEquals(50, json.getLong("mean"));
+        // the 50th value, 50, is in the bucket 32..63
+        assertEquals(63, json.getLong("p50"));
+        // the 90th and 99th values are in the bucket 64..127, capped by the maximum
+        assertEquals(100, json.getLong("p90"));
+        assertEquals(100, json.getLong("p99"));
+        assertEquals(100, json.getLong("max"));
+    }
+
+    @Test
+    public void keepsZeroInItsOwnBucket() throws JSONException {
+        DownloadMetrics.Histogram histogram = new DownloadMetrics.Histogram();
+        histogram.record(0);
+        histogram.record(0);
+        histogram.record(1000);
+
+        JSONObject json = histogram.toJson();
+        assertEquals(0, json.getLong("p50"));
+        assertEquals(1000, json.getLong("p99"));
+    }
+
+    @Test
+    public void ignoresNegativeValues() throws JSONException {
+        DownloadMetrics.Histogram histogram = new DownloadMetrics.Histogram();
+        histogram.record(-1);
+
+        assertEquals(0, histogram.toJson().getLong("count"));
+    }
+
+    @Test
+    public void reportsCountersAndFinalizationTimes() throws JSONException {
+        DownloadMetrics metrics = new DownloadMetrics();
+        metrics.started.addAndGet(3);
+        metrics.succeeded.incrementAndGet();
+        metrics.bytesReceived.addAndGet(4096);
+        metrics.copyTime.record(12);
+
+        JSONObject json = metrics.toJson();
+        assertEquals(3, json.getLong("started"));
+        assertEquals(1, json.getLong("succeeded"));
+        assertEquals(0, json.getLong("failed"));
+        assertEquals(4096, json.getLong("bytesReceived"));
+        assertEquals(1, json.getJSONObject("finalization").getJSONObject("copy").getLong("count"));
+        assertEquals(12, json.getJSONObject("finalization").getJSONObject("copy").getLong("max"));
+        assertEquals(0, json.getJSONObject("queueWait").getLong("count"));
+    }
+}
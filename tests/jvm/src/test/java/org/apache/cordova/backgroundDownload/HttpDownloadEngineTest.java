@@ -0,0 +1,293 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpDownloadEngineTest {
+
+    private static final int MB = 1048576;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private ExecutorService executor;
+    private HttpDownloadEngine engine;
+
+    /**
+     * Records the outcome of a transfer.
+     */
+    private static class Result implements HttpDownloadEngine.Listener {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean isComplete;
+        private volatile int httpStatus = -1;
+        private volatile Exception cause;
+
+        @Override
+        public void onComplete(HttpDownloadEngine.Transfer transfer) {
+            isComplete = true;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(HttpDownloadEngine.Transfer transfer, int httpStatus, Exception cause) {
+            this.httpStatus = httpStatus;
+            this.cause = cause;
+            done.countDown();
+        }
+
+        Result await() throws InterruptedException {
+            assertTrue("transfer did not finish", done.await(30, TimeUnit.SECONDS));
+            return this;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        executor = Executors.newCachedThreadPool();
+        engine = new HttpDownloadEngine(executor);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private HttpDownloadEngine.Transfer start(String path, File file, int segments,
+                                              HttpDownloadEngine.Checkpoint checkpoint, Result result) {
+        return engine.start(server.url(path), file, Collections.<String, String>emptyMap(), segments, checkpoint,
+                result);
+    }
+
+    @Test
+    public void downloadsSmallFileOverOneConnection() throws Exception {
+        byte[] content = LocalHttpServer.content(300000, 1);
+        server.put("/small", content);
+        File file = folder.newFile();
+
+        Result result = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/small", file, 4, null, result);
+
+        assertTrue(result.await().isComplete);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, server.requests.get());
+        assertEquals(content.length, transfer.getBytesReceived());
+        assertEquals(content.length, transfer.getTotalBytes());
+    }
+
+    @Test
+    public void splitsLargeFileIntoSegments() throws Exception {
+        byte[] content = LocalHttpServer.content(4 * MB + 123, 2);
+        server.put("/large", content);
+        File file = folder.newFile();
+
+        Result result = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/large", file, 4, null, result);
+
+        assertTrue(result.await().isComplete);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(4, server.rangeRequests.get());
+        assertEquals(4, transfer.getCheckpoint().getSegments().length);
+    }
+
+    @Test
+    public void usesOneConnectionWhenRangesAreNotSupported() throws Exception {
+        byte[] content = LocalHttpServer.content(3 * MB, 3);
+        server.put("/plain", content);
+        server.setRangeSupported(false);
+        File file = folder.newFile();
+
+        Result result = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/plain", file, 4, null, result);
+
+        assertTrue(result.await().isComplete);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, server.requests.get());
+        assertEquals(1, transfer.getCheckpoint().getSegments().length);
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        byte[] content = LocalHttpServer.content(4 * MB, 4);
+        server.put("/resume", content);
+        server.setBandwidth(4 * MB);
+        File file = folder.newFile();
+
+        Result first = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/resume", file, 2, null, first);
+        while (transfer.getBytesReceived() < MB) {
+            Thread.sleep(10);
+        }
+        transfer.cancel();
+        HttpDownloadEngine.Checkpoint checkpoint = transfer.getCheckpoint();
+        assertNotNull(checkpoint);
+        long written = checkpoint.getBytesWritten();
+        assertTrue(written > 0 && written < content.length);
+
+        server.awaitIdle();
+        server.setBandwidth(0);
+        long sentBefore = server.bytesSent.get();
+        Result second = new Result();
+        HttpDownloadEngine.Transfer resumed = start("/resume", file, 2, checkpoint, second);
+
+        assertTrue(second.await().isComplete);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(content.length, resumed.getBytesReceived());
+        // only the missing ranges were requested again
+        assertEquals(content.length - written, server.bytesSent.get() - sentBefore);
+    }
+
+    @Test
+    public void restartsWhenResourceChanged() throws Exception {
+        byte[] original = LocalHttpServer.content(2 * MB, 5);
+        server.put("/changed", original);
+        File file = folder.newFile();
+
+        Result first = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/changed", file, 1, null, first);
+        assertTrue(first.await().isComplete);
+        HttpDownloadEngine.Segment[] segments = transfer.getCheckpoint().getSegments();
+        // pretend only half of the file was written
+        HttpDownloadEngine.Checkpoint checkpoint = new HttpDownloadEngine.Checkpoint(
+                transfer.getCheckpoint().getEtag(), null, original.length,
+                new HttpDownloadEngine.Segment[]{new HttpDownloadEngine.Segment(0, segments[0].getEnd(), MB)});
+
+        byte[] updated = LocalHttpServer.content(2 * MB, 6);
+        server.put("/changed", updated);
+        Result second = new Result();
+        start("/changed", file, 1, checkpoint, second);
+
+        assertTrue(second.await().isComplete);
+        assertArrayEquals(updated, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void reportsHttpStatus() throws Exception {
+        Result result = new Result();
+        start("/missing", folder.newFile(), 1, null, result);
+
+        result.await();
+        assertFalse(result.isComplete);
+        assertEquals(404, result.httpStatus);
+        assertNull(result.cause);
+    }
+
+    @Test
+    public void reportsTruncatedResponse() throws Exception {
+        server.put("/truncated", LocalHttpServer.content(MB, 7));
+        server.setFaults(1, 0);
+
+        Result result = new Result();
+        start("/truncated", folder.newFile(), 1, null, result);
+
+        result.await();
+        assertFalse(result.isComplete);
+        assertEquals(0, result.httpStatus);
+        assertTrue(result.cause instanceof IOException);
+    }
+
+    @Test
+    public void doesNotReportCanceledTransfer() throws Exception {
+        server.put("/canceled", LocalHttpServer.content(2 * MB, 8));
+        server.setBandwidth(MB);
+
+        Result result = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/canceled", folder.newFile(), 1, null, result);
+        while (transfer.getBytesReceived() == 0) {
+            Thread.sleep(10);
+        }
+        transfer.cancel();
+
+        assertFalse(result.done.await(2, TimeUnit.SECONDS));
+        assertTrue(transfer.isCanceled());
+    }
+
+    @Test
+    public void deletesDiscardedFile() throws Exception {
+        server.put("/discarded", LocalHttpServer.content(4 * MB, 8));
+        server.setBandwidth(MB);
+        File file = new File(folder.getRoot(), "discarded");
+
+        Result result = new Result();
+        HttpDownloadEngine.Transfer transfer = start("/discarded", file, 2, null, result);
+        while (transfer.getBytesReceived() == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.exists());
+        transfer.discard();
+
+        // deleted by the segment noticing the cancellation
+        server.awaitIdle();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(file.exists());
+        assertFalse(result.done.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void limitsSpeed() throws Exception {
+        byte[] content = LocalHttpServer.content(MB, 9);
+        server.put("/limited", content);
+        engine.setMaxBytesPerSecond(MB / 2);
+
+        long start = System.nanoTime();
+        Result result = new Result();
+        start("/limited", folder.newFile(), 1, null, result);
+
+        assertTrue(result.await().isComplete);
+        // one second of bytes may be read in a burst, the rest is paced
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+    }
+
+    @Test
+    public void probesSize() throws Exception {
+        server.put("/probe", LocalHttpServer.content(12345, 10));
+
+        assertEquals(12345, HttpDownloadEngine.probeSize(server.url("/probe"),
+                Collections.<String, String>emptyMap()));
+        assertEquals(-1, HttpDownloadEngine.probeSize(server.url("/missing"),
+                Collections.<String, String>emptyMap()));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server on the loopback interface serving files from memory, with ranges, validators and simulated network
+ * conditions: a latency before every response, a bandwidth per connection and faults which cut off responses or
+ * answer with an error status. Faults are drawn from a seeded generator, so a run is reproducible.
+ */
+class LocalHttpServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int CHUNK_SIZE = 16384;
+
+    private static class Resource {
+
+        private final byte[] content;
+        private final String etag;
+
+        Resource(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final AtomicInteger etagCounter = new AtomicInteger();
+    private final Random random = new Random(42);
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean isRangeSupported = true;
+    private volatile double truncateRate;
+    private volatile double errorRate;
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger rangeRequests = new AtomicInteger();
+    final AtomicInteger faults = new AtomicInteger();
+    final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger activeExchanges = new AtomicInteger();
+
+    LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves the content at the path, with a new entity tag.
+     */
+    void put(String path, byte[] content) {
+        resources.put(path, new Resource(content, "\"" + etagCounter.incrementAndGet() + "\""));
+    }
+
+    /**
+     * @param latencyMillis delay before the response headers of every request
+     */
+    void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond limit of every connection, 0 for none
+     */
+    void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void setRangeSupported(boolean isRangeSupported) {
+        this.isRangeSupported = isRangeSupported;
+    }
+
+    /**
+     * @param truncateRate probability of a response being cut off after a random part of its body
+     * @param errorRate    probability of a request answered with 503 Service Unavailable
+     */
+    void setFaults(double truncateRate, double errorRate) {
+        this.truncateRate = truncateRate;
+        this.errorRate = errorRate;
+    }
+
+    static byte[] content(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private synchronized double nextRandom() {
+        return random.nextDouble();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        activeExchanges.incrementAndGet();
+        try {
+            requests.incrementAndGet();
+            sleep(latencyMillis);
+
+            Resource resource = resources.get(exchange.getRequestURI().getPath());
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (errorRate > 0 && nextRandom() < errorRate) {
+                faults.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            byte[] content = resource.content;
+            long start = 0;
+            long end = content.length - 1;
+            int status = 200;
+            exchange.getResponseHeaders().set("ETag", resource.etag);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            Matcher matcher = range != null ? RANGE.matcher(range) : null;
+            if (isRangeSupported) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                if (matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(resource.etag))) {
+                    rangeRequests.incrementAndGet();
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                    if (start > end) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + end + "/" + content.length);
+                }
+            }
+
+            long length = end - start + 1;
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            long cutOff = length;
+            if (truncateRate > 0 && nextRandom() < truncateRate) {
+                faults.incrementAndGet();
+                cutOff = (long) (nextRandom() * length);
+            }
+            exchange.sendResponseHeaders(status, length);
+            send(exchange.getResponseBody(), content, (int) start, length, cutOff);
+        } finally {
+            exchange.close();
+            activeExchanges.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the body in chunks, paced to the bandwidth. A body cut off before its length makes the exchange fail,
+     * the client sees the connection closed early.
+     */
+    private void send(OutputStream out, byte[] content, int offset, long length, long cutOff) throws IOException {
+        long startNanos = System.nanoTime();
+        long sent = 0;
+        while (sent < cutOff) {
+            int chunk = (int) Math.min(CHUNK_SIZE, cutOff - sent);
+            out.write(content, offset + (int) sent, chunk);
+            out.flush();
+            sent += chunk;
+            bytesSent.addAndGet(chunk);
+
+            long limit = bytesPerSecond;
+            if (limit > 0) {
+                long dueNanos = startNanos + sent * 1000000000L / limit;
+                sleep(TimeUnit.NANOSECONDS.toMillis(dueNanos - System.nanoTime()));
+            }
+        }
+        if (sent < length) {
+            throw new IOException("Response cut off after " + sent + " of " + length + " bytes");
+        }
+    }
+
+    /**
+     * Waits until no response is being sent, e.g. until the responses of a canceled download noticed that the client
+     * went away.
+     */
+    void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (activeExchanges.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(activeExchanges.get() + " responses still running");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
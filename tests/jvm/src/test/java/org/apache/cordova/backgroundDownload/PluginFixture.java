@@ -0,0 +1,229 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.ICordovaCookieManager;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Runs the plugin like Cordova does, with an activity whose directories are below a root directory and a cached
+ * thread pool, and records the results sent to each callback.
+ */
+class PluginFixture implements AutoCloseable {
+
+    /**
+     * Records every result sent for a call, including the ones Cordova drops because the callback already finished.
+     */
+    static class Callback extends CallbackContext {
+
+        private final List<PluginResult> results = new ArrayList<>();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicInteger finalResults = new AtomicInteger();
+
+        Callback(String callbackId, CordovaWebView webView) {
+            super(callbackId, webView);
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            synchronized (results) {
+                results.add(pluginResult);
+            }
+            if (!pluginResult.getKeepCallback()) {
+                finalResults.incrementAndGet();
+                finished.countDown();
+            }
+            super.sendPluginResult(pluginResult);
+        }
+
+        Callback await() throws InterruptedException {
+            if (!finished.await(60, TimeUnit.SECONDS)) {
+                throw new AssertionError("no result for " + getCallbackId());
+            }
+            return this;
+        }
+
+        boolean await(long millis) throws InterruptedException {
+            return finished.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return the number of results which finished the callback, more than one is a bug
+         */
+        int getFinalResults() {
+            return finalResults.get();
+        }
+
+        PluginResult getFinalResult() {
+            synchronized (results) {
+                for (PluginResult result : results) {
+                    if (!result.getKeepCallback()) {
+                        return result;
+                    }
+                }
+            }
+            return null;
+        }
+
+        boolean isSuccess() {
+            PluginResult result = getFinalResult();
+            return result != null && result.getStatus() == PluginResult.Status.OK.ordinal();
+        }
+
+        /**
+         * @return the progress updates, without status messages
+         */
+        List<JSONObject> getProgress() throws JSONException {
+            List<JSONObject> progress = new ArrayList<>();
+            synchronized (results) {
+                for (PluginResult result : results) {
+                    if (result.getKeepCallback() && result.getMessageType() == PluginResult.MESSAGE_TYPE_JSON) {
+                        JSONObject message = new JSONObject(result.getMessage());
+                        if (message.has("progress") && message.getJSONObject("progress").has("bytesReceived")) {
+                            progress.add(message.getJSONObject("progress"));
+                        }
+                    }
+                }
+            }
+            return progress;
+        }
+    }
+
+    private final AtomicInteger callbackIds = new AtomicInteger();
+    final Activity activity;
+    final ExecutorService threadPool = Executors.newCachedThreadPool();
+    final CordovaWebView webView = new CordovaWebView() {
+        @Override
+        public ICordovaCookieManager getCookieManager() {
+            return url -> null;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult cr, String callbackId) {
+            // the results are recorded by the callbacks
+        }
+    };
+    final BackgroundDownload plugin = new BackgroundDownload();
+
+    PluginFixture(File root) {
+        activity = new Activity(root);
+        plugin.privateInitialize("BackgroundDownload", new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+
+            @Override
+            public Context getContext() {
+                return activity;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        }, webView);
+    }
+
+    Callback execute(String action, Object... args) throws JSONException {
+        Callback callback = new Callback("BackgroundDownload" + callbackIds.incrementAndGet(), webView);
+        JSONArray jsonArgs = new JSONArray();
+        for (Object arg : args) {
+            jsonArgs.put(arg == null ? JSONObject.NULL : arg);
+        }
+        if (!plugin.execute(action, jsonArgs, callback)) {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+        return callback;
+    }
+
+    /**
+     * Starts a download like DownloadOperation.startAsync in JavaScript.
+     *
+     * @param options the download options, null for the defaults
+     */
+    Callback start(String uri, File target, JSONObject options) throws JSONException {
+        return execute("startAsync", uri, Uri.fromFile(target).toString(), null, null, null, options);
+    }
+
+    Callback stop(String uri) throws JSONException {
+        return execute("stop", uri);
+    }
+
+    /**
+     * @return a file in the app-specific external files directory
+     */
+    File target(String name) {
+        return new File(activity.getExternalFilesDirs(null)[0], name);
+    }
+
+    JSONObject getMetrics() throws JSONException, InterruptedException {
+        Callback callback = execute("getMetrics").await();
+        return new JSONObject(callback.getFinalResult().getMessage());
+    }
+
+    /**
+     * Waits until no download is registered anymore.
+     */
+    JSONObject awaitIdle() throws JSONException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        JSONObject metrics;
+        while ((metrics = getMetrics()).getJSONArray("downloads").length() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("downloads still active: " + metrics.getJSONArray("downloads"));
+            }
+            Thread.sleep(20);
+        }
+        return metrics;
+    }
+
+    static JSONObject options(Object... keysAndValues) throws JSONException {
+        JSONObject options = new JSONObject();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            options.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return options;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        plugin.onDestroy();
+        threadPool.shutdownNow();
+        threadPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import static org.apache.cordova.backgroundDownload.PluginFixture.options;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Polls DownloadManager downloads which make no progress, the common case between two chunks, and checks that a
+ * progress tick allocates nothing.
+ */
+public class ProgressAllocationTest {
+
+    private static final int DOWNLOADS = 32;
+    private static final int WARMUP_TICKS = 20000;
+    private static final int TICKS = 10000;
+
+    /**
+     * Reports every enqueued download as running with a constant number of bytes, from a cursor which is reused
+     * because closing a MatrixCursor does nothing.
+     */
+    private static class StalledDownloadManager extends DownloadManager {
+
+        private final MatrixCursor cursor = new MatrixCursor(new String[]{COLUMN_ID, COLUMN_URI, COLUMN_LOCAL_URI,
+                COLUMN_STATUS, COLUMN_REASON, COLUMN_BYTES_DOWNLOADED_SO_FAR, COLUMN_TOTAL_SIZE_BYTES});
+        private long nextId = 1;
+
+        StalledDownloadManager(Context context) {
+            super(context);
+        }
+
+        @Override
+        public synchronized long enqueue(Request request) {
+            long id = nextId++;
+            cursor.addRow(new Object[]{id, "http://localhost/" + id, null, STATUS_RUNNING, 0, 1024L, 4096L});
+            return id;
+        }
+
+        @Override
+        public synchronized Cursor query(Query query) {
+            return cursor;
+        }
+
+        @Override
+        public int remove(long... ids) {
+            return ids.length;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PluginFixture fixture;
+
+    @Before
+    public void setUp() {
+        fixture = new PluginFixture(folder.getRoot());
+        fixture.activity.setSystemService(Context.DOWNLOAD_SERVICE, new StalledDownloadManager(fixture.activity));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    private void startStalledDownloads() throws Exception {
+        fixture.execute("configure", options("maxConcurrentDownloads", DOWNLOADS + 2,
+                "maxDownloadsPerHost", DOWNLOADS + 2)).await();
+        List<PluginFixture.Callback> callbacks = new ArrayList<>();
+        for (int i = 0; i < DOWNLOADS; i++) {
+            callbacks.add(fixture.start("http://localhost/file" + i + ".bin", fixture.target("file" + i + ".bin"),
+                    null));
+        }
+        // the first tick reports the bytes, every later one sees them unchanged
+        for (PluginFixture.Callback callback : callbacks) {
+            while (callback.getProgress().isEmpty()) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private void assertTicksDoNotAllocate() throws Throwable {
+        Method method = BackgroundDownload.class.getDeclaredMethod("updateProgress");
+        method.setAccessible(true);
+        MethodHandle tick = MethodHandles.lookup().unreflect(method);
+        BackgroundDownload plugin = fixture.plugin;
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            tick.invokeExact(plugin);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < TICKS; i++) {
+            tick.invokeExact(plugin);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // a few bytes of slack for the measurement itself, anything allocated per tick adds up to far more
+        assertTrue(allocated + " bytes allocated by " + TICKS + " ticks", allocated < TICKS);
+    }
+
+    @Test
+    public void unchangedTickDoesNotAllocate() throws Throwable {
+        startStalledDownloads();
+        assertTicksDoNotAllocate();
+    }
+
+    @Test
+    public void finishedBatchDoesNotMakeTicksAllocate() throws Throwable {
+        startStalledDownloads();
+        JSONArray specs = new JSONArray();
+        for (int i = 0; i < 2; i++) {
+            specs.put(new JSONObject()
+                    .put("uri", "http://localhost/batch" + i + ".bin")
+                    .put("target", android.net.Uri.fromFile(fixture.target("batch" + i + ".bin")).toString()));
+        }
+        // in-process, so stopping the members finishes the batch without a DownloadManager tick
+        PluginFixture.Callback batch = fixture.execute("startBatch", "batch", specs, null, null,
+                options("engine", "http"));
+        fixture.stop("batch").await();
+        batch.await();
+
+        assertTicksDoNotAllocate();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONObject;
+
+import static org.apache.cordova.backgroundDownload.PluginFixture.options;
+
+/**
+ * Downloads a set of files through the plugin from the local server, under simulated latency, bandwidth and faults,
+ * and reports the throughput, retries and wasted bytes. Run by ThroughputHarnessTest with small scenarios, or by hand
+ * with "./gradlew throughput -Pharness.args='--files 16 --size 8388608 --latency 80 --bandwidth 2000000'".
+ */
+public class ThroughputHarness {
+
+    static class Scenario {
+
+        int files = 8;
+        int size = 4194304;
+        // in-process engine, or DownloadManager when false
+        boolean usesHttpEngine = true;
+        int segments = HttpDownloadEngine.DEFAULT_SEGMENTS;
+        int maxConcurrentDownloads = 4;
+        long latencyMillis;
+        long bytesPerSecond;
+        double truncateRate;
+        double errorRate;
+
+        static Scenario parse(String[] args) {
+            Scenario scenario = new Scenario();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--files":
+                        scenario.files = Integer.parseInt(value);
+                        break;
+                    case "--size":
+                        scenario.size = Integer.parseInt(value);
+                        break;
+                    case "--engine":
+                        scenario.usesHttpEngine = "http".equals(value);
+                        break;
+                    case "--segments":
+                        scenario.segments = Integer.parseInt(value);
+                        break;
+                    case "--concurrency":
+                        scenario.maxConcurrentDownloads = Integer.parseInt(value);
+                        break;
+                    case "--latency":
+                        scenario.latencyMillis = Long.parseLong(value);
+                        break;
+                    case "--bandwidth":
+                        scenario.bytesPerSecond = Long.parseLong(value);
+                        break;
+                    case "--truncate":
+                        scenario.truncateRate = Double.parseDouble(value);
+                        break;
+                    case "--errors":
+                        scenario.errorRate = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            return scenario;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d x %d bytes, %s, %d segments, %d concurrent, latency %d ms, "
+                            + "bandwidth %d B/s, truncate %.2f, errors %.2f", files, size,
+                    usesHttpEngine ? "http engine" : "DownloadManager", segments, maxConcurrentDownloads,
+                    latencyMillis, bytesPerSecond, truncateRate, errorRate);
+        }
+    }
+
+    static class Report {
+
+        int succeeded;
+        int failed;
+        // downloads which succeeded with content different from the server's
+        int corrupt;
+        long elapsedMillis;
+        long bytes;
+        long retries;
+        long bytesWasted;
+        long bridgeEvents;
+        int requests;
+        int faults;
+
+        double getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytes * 1000.0 / elapsedMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d succeeded, %d failed, %d corrupt in %d ms: %.2f MB/s, "
+                            + "%d retries, %d bytes wasted, %d bridge events, %d requests, %d faults", succeeded,
+                    failed, corrupt, elapsedMillis, getBytesPerSecond() / 1048576, retries, bytesWasted,
+                    bridgeEvents, requests, faults);
+        }
+    }
+
+    static Report run(Scenario scenario, File dir) throws Exception {
+        try (LocalHttpServer server = new LocalHttpServer();
+             PluginFixture fixture = new PluginFixture(dir)) {
+            List<byte[]> contents = new ArrayList<>();
+            for (int i = 0; i < scenario.files; i++) {
+                byte[] content = LocalHttpServer.content(scenario.size, i);
+                server.put("/file" + i + ".bin", content);
+                contents.add(content);
+            }
+            server.setLatency(scenario.latencyMillis);
+            server.setBandwidth(scenario.bytesPerSecond);
+            server.setFaults(scenario.truncateRate, scenario.errorRate);
+            fixture.execute("configure", options("maxConcurrentDownloads", scenario.maxConcurrentDownloads,
+                    "maxDownloadsPerHost", scenario.maxConcurrentDownloads)).await();
+
+            JSONObject downloadOptions = options("segments", scenario.segments,
+                    "retry", options("maxAttempts", 50, "baseDelay", 20, "maxDelay", 200));
+            if (scenario.usesHttpEngine) {
+                downloadOptions.put("engine", "http");
+            }
+
+            JSONObject before = fixture.getMetrics();
+            long start = System.nanoTime();
+            List<PluginFixture.Callback> callbacks = new ArrayList<>();
+            for (int i = 0; i < scenario.files; i++) {
+                callbacks.add(fixture.start(server.url("/file" + i + ".bin"), fixture.target("file" + i + ".bin"),
+                        downloadOptions));
+            }
+
+            Report report = new Report();
+            for (int i = 0; i < scenario.files; i++) {
+                if (!callbacks.get(i).await().isSuccess()) {
+                    report.failed++;
+                    continue;
+                }
+                report.succeeded++;
+                report.bytes += scenario.size;
+                byte[] downloaded = Files.readAllBytes(fixture.target("file" + i + ".bin").toPath());
+                if (!Arrays.equals(contents.get(i), downloaded)) {
+                    report.corrupt++;
+                }
+            }
+            report.elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            JSONObject after = fixture.awaitIdle();
+            report.retries = after.getLong("retries") - before.getLong("retries");
+            report.bytesWasted = after.getLong("bytesWasted") - before.getLong("bytesWasted");
+            report.bridgeEvents = after.getLong("bridgeEvents") - before.getLong("bridgeEvents");
+            report.requests = server.requests.get();
+            report.faults = server.faults.get();
+            return report;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Scenario scenario = Scenario.parse(args);
+        File dir = Files.createTempDirectory("throughput").toFile();
+        System.out.println(scenario);
+        System.out.println(run(scenario, dir));
+    }
+}
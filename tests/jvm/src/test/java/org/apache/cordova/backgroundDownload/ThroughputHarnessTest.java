@@ -0,0 +1,98 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.backgroundDownload;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Small scenarios of the throughput harness, so regressions of the download path show up without a network.
+ */
+public class ThroughputHarnessTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertAllSucceeded(ThroughputHarness.Scenario scenario, ThroughputHarness.Report report) {
+        assertEquals(report.toString(), scenario.files, report.succeeded);
+        assertEquals(report.toString(), 0, report.corrupt);
+    }
+
+    @Test
+    public void downloadsOverSlowLink() throws Exception {
+        ThroughputHarness.Scenario scenario = new ThroughputHarness.Scenario();
+        scenario.files = 6;
+        scenario.size = 2097152;
+        scenario.latencyMillis = 50;
+        scenario.bytesPerSecond = 8388608;
+
+        ThroughputHarness.Report report = ThroughputHarness.run(scenario, folder.newFolder());
+
+        assertAllSucceeded(scenario, report);
+        assertEquals(report.toString(), 0, report.retries);
+    }
+
+    @Test
+    public void recoversFromFaults() throws Exception {
+        ThroughputHarness.Scenario scenario = new ThroughputHarness.Scenario();
+        scenario.files = 6;
+        scenario.size = 2097152;
+        scenario.truncateRate = 0.3;
+        scenario.errorRate = 0.1;
+
+        ThroughputHarness.Report report = ThroughputHarness.run(scenario, folder.newFolder());
+
+        assertAllSucceeded(scenario, report);
+        assertTrue(report.toString(), report.faults > 0 && report.retries > 0);
+        // resumed attempts keep the bytes of the previous ones
+        assertTrue(report.toString(), report.bytesWasted < (long) scenario.files * scenario.size);
+    }
+
+    @Test
+    public void downloadsWithDownloadManager() throws Exception {
+        ThroughputHarness.Scenario scenario = new ThroughputHarness.Scenario();
+        scenario.files = 4;
+        scenario.size = 1048576;
+        scenario.usesHttpEngine = false;
+        scenario.latencyMillis = 20;
+
+        assertAllSucceeded(scenario, ThroughputHarness.run(scenario, folder.newFolder()));
+    }
+
+    @Test
+    public void segmentsBeatPerConnectionLimit() throws Exception {
+        ThroughputHarness.Scenario scenario = new ThroughputHarness.Scenario();
+        scenario.files = 1;
+        scenario.size = 4194304;
+        scenario.bytesPerSecond = 2097152;
+
+        scenario.segments = 1;
+        ThroughputHarness.Report single = ThroughputHarness.run(scenario, folder.newFolder());
+        scenario.segments = 4;
+        ThroughputHarness.Report segmented = ThroughputHarness.run(scenario, folder.newFolder());
+
+        assertAllSucceeded(scenario, single);
+        assertAllSucceeded(scenario, segmented);
+        assertTrue(single + " / " + segmented, segmented.getBytesPerSecond() > 2 * single.getBytesPerSecond());
+    }
+}
@@ -19,7 +19,10 @@
  *
 */
 
-var DownloadOperation = require('./DownloadOperation');
+var exec = require('cordova/exec'),
+    Promise = require('./Promise'),
+    DownloadOperation = require('./DownloadOperation'),
+    DownloadBatchOperation = require('./DownloadBatchOperation');
 
 /**
  * Initializes a new instance of BackgroundDownloader object.
@@ -38,9 +41,124 @@ var BackgroundDownloader = function(uriMatcher) {
  * @param {File} resultFile The file that the response will be written to.
  * @param {string} notificationTitle The title for downloading in notification.
  * @param {string[]} headers The custom headers to add to the download request.
+ * @param {Object} options Additional download options, see DownloadOperation.
  */
-BackgroundDownloader.prototype.createDownload = function(uri, resultFile, notificationTitle, headers) {
-    return new DownloadOperation(uri, resultFile, this.uriMatcher, notificationTitle, headers);
+BackgroundDownloader.prototype.createDownload = function(uri, resultFile, notificationTitle, headers, options) {
+    return new DownloadOperation(uri, resultFile, this.uriMatcher, notificationTitle, headers, options);
+};
+
+/**
+ * Initializes a DownloadBatchOperation object that starts several downloads with a single native call.
+ *
+ * @param {Object[]} downloads The downloads as { uri, resultFile, headers, options } objects.
+ * @param {string} notificationTitle The title for downloading in notification.
+ * @param {Object} options Download options applied to every download, see DownloadOperation.
+ */
+BackgroundDownloader.prototype.createBatch = function(downloads, notificationTitle, options) {
+    return new DownloadBatchOperation(downloads, this.uriMatcher, notificationTitle, options);
+};
+
+/**
+ * Initializes a DownloadBatchOperation object for downloads that are only usable together: the result files are
+ * written all at once when every download succeeded, or not at all. See the atomic option of DownloadBatchOperation.
+ *
+ * @param {Object[]} downloads The downloads as { uri, resultFile, headers, options } objects.
+ * @param {string} notificationTitle The title for downloading in notification.
+ * @param {Object} options Download options applied to every download, see DownloadOperation.
+ */
+BackgroundDownloader.prototype.createGroup = function(downloads, notificationTitle, options) {
+    var groupOptions = {};
+    Object.keys(options || {}).forEach(function (key) {
+        groupOptions[key] = options[key];
+    });
+    groupOptions.atomic = true;
+    return new DownloadBatchOperation(downloads, this.uriMatcher, notificationTitle, groupOptions);
+};
+
+/**
+ * Configures the download queue shared by all downloaders.
+ *
+ * @param {Object} options
+ * @param {number} options.maxConcurrentDownloads The maximum number of downloads running at once (default 4).
+ * @param {number} options.maxDownloadsPerHost The maximum number of downloads running at once for a single host (default 4).
+ * @param {number} options.cacheSize The size limit of the download cache in bytes (default 100MB).
+ * @param {number} options.maxBytesPerSecond The combined speed limit of "http" engine downloads (default 0, none).
+ * @param {number} options.maxBytesPerSecondMetered The combined speed limit of "http" engine downloads while the
+ *     network is metered (default 0, none).
+ */
+BackgroundDownloader.configure = function(options) {
+    var deferral = new Promise.Deferral();
+
+    exec(function(result) {
+        deferral.resolve(result);
+    }, function(err) {
+        deferral.reject(err);
+    }, "BackgroundDownload", "configure", [options || {}]);
+
+    return deferral.promise;
+};
+
+/**
+ * Subscribes to the progress of all active downloads. Replaces the previous subscriber.
+ * The callback receives bytesReceived, totalBytesToReceive, throughput (bytes per second), eta (seconds, -1 if
+ * unknown) and the number of downloads, running and queued downloads whenever any of them changes.
+ *
+ * @param {Function} onProgress The callback for progress updates.
+ */
+BackgroundDownloader.subscribeProgress = function(onProgress) {
+    exec(function(progress) {
+        if (progress) {
+            onProgress(progress);
+        }
+    }, null, "BackgroundDownload", "subscribeProgress", []);
+};
+
+/**
+ * Stops progress updates of all active downloads.
+ */
+BackgroundDownloader.unsubscribeProgress = function() {
+    exec(null, null, "BackgroundDownload", "unsubscribeProgress", []);
+};
+
+/**
+ * Returns the performance metrics collected since the plugin was loaded (Android): counters of started, succeeded,
+ * failed and canceled downloads, retries, cache hits, bytes received and wasted and events sent to JavaScript,
+ * histograms (count, mean, p50, p90, p99, max) of queueWait, timeToFirstByte, throughput and finalization times, and
+ * the metrics of each active download in downloads.
+ *
+ * @return {Promise} A promise resolved with the metrics.
+ */
+BackgroundDownloader.getMetrics = function() {
+    var deferral = new Promise.Deferral();
+
+    exec(function(metrics) {
+        deferral.resolve(metrics);
+    }, function(err) {
+        deferral.reject(err);
+    }, "BackgroundDownload", "getMetrics", []);
+
+    return deferral.promise;
+};
+
+/**
+ * Subscribes to the metrics, see getMetrics. Replaces the previous subscriber.
+ *
+ * @param {Function} onMetrics The callback receiving the metrics.
+ * @param {number} interval The interval between updates in milliseconds (default 5000).
+ */
+BackgroundDownloader.subscribeMetrics = function(onMetrics, interval) {
+    exec(function(metrics) {
+        if (metrics) {
+            onMetrics(metrics);
+        }
+    }, null, "BackgroundDownload", "subscribeMetrics", [interval || null]);
+};
+
+/**
+ * Stops metrics updates.
+ */
+BackgroundDownloader.unsubscribeMetrics = function() {
+    exec(null, null, "BackgroundDownload", "unsubscribeMetrics", []);
 };
 
 module.exports = BackgroundDownloader;
@@ -0,0 +1,109 @@
+﻿/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+*/
+
+var exec = require('cordova/exec'),
+    Promise = require('./Promise');
+
+var batchCounter = 0;
+
+/**
+ * Performs several download operations in the background using a single native call.
+ * Progress of all downloads is reported in aggregate.
+ *
+ * @param {Object[]} downloads The downloads to perform.
+ * @param {string} downloads[].uri The location of the resource.
+ * @param {File} downloads[].resultFile The file that the response will be written to.
+ * @param {string[]} downloads[].headers The custom headers to add to the download request.
+ * @param {Object} downloads[].options Download options, overriding the options of the batch.
+ * @param {string} uriMatcher The regexp to compare location of the resources with already downloading ones.
+ * @param {string} notificationTitle The title for downloading in notification.
+ * @param {Object} options Download options applied to every download, see DownloadOperation.
+ * @param {boolean} options.atomic Keep every download in temporary storage until all of them succeeded, then move
+ *     them to their result files together. The first failure cancels the batch and no result file is written
+ *     (Android, default false).
+ */
+var DownloadBatchOperation = function (downloads, uriMatcher, notificationTitle, options) {
+
+    if (downloads == null || !Array.isArray(downloads)) {
+        throw new Error("missing or invalid argument");
+    }
+
+    downloads.forEach(function (download) {
+        if (download == null || download.uri == null || download.resultFile == null) {
+            throw new Error("missing or invalid argument");
+        }
+    });
+
+    this.id = 'batch-' + Date.now() + '-' + (batchCounter++);
+    this.downloads = downloads;
+    this.uriMatcher = uriMatcher;
+    this.notificationTitle = notificationTitle;
+    this.options = options || {};
+};
+
+/**
+ * Starts all download operations of the batch.
+ * Progress reports bytesReceived and totalBytesToReceive over all downloads, the number of finished downloads and
+ * the uris which succeeded or failed since the previous progress report.
+ * The promise is resolved with { succeeded: [uri], failed: [{ uri, error }] } once all downloads have finished,
+ * or rejected with the same object if any of them failed.
+ */
+DownloadBatchOperation.prototype.startAsync = function() {
+
+    var deferral = new Promise.Deferral(),
+        me = this,
+        successCallback = function(result) {
+            if (result && typeof result.progress != 'undefined') {
+                deferral.notify(result.progress);
+            } else {
+                deferral.resolve(result);
+            }
+        },
+        errorCallback = function(err) {
+            deferral.reject(err);
+        },
+        specs = this.downloads.map(function (download) {
+            return {
+                uri: download.uri,
+                target: download.resultFile.nativeURL,
+                headers: download.headers,
+                options: download.options
+            };
+        });
+
+    exec(successCallback, errorCallback, "BackgroundDownload", "startBatch", [this.id, specs, this.uriMatcher, this.notificationTitle, this.options]);
+
+    // custom mechanism to trigger stop when user cancels pending operation
+    deferral.promise.onCancelled = function () {
+        me.stop();
+    };
+
+    return deferral.promise;
+};
+
+/**
+ * Stops all download operations of the batch.
+ */
+DownloadBatchOperation.prototype.stop = function() {
+    exec(null, null, "BackgroundDownload", "stop", [this.id]);
+};
+
+module.exports = DownloadBatchOperation;
@@ -30,8 +30,45 @@ var exec = require('cordova/exec'),
  * @param {string} uriMatcher The regexp to compare location of the resources with already downloading ones.
  * @param {string} notificationTitle The title for downloading in notification.
  * @param {string[]} headers The custom headers to add to the download request.
+ * @param {Object} options Additional download options.
+ * @param {number} options.priority The queue priority, downloads with higher priority are started first (default 0).
+ * @param {boolean} options.directToTarget Download next to the result file when possible, so it is moved into place
+ *     without copying (Android, default false).
+ * @param {string} options.engine "http" to download in-process over several connections instead of using the system
+ *     DownloadManager (Android, default "downloadManager"). Such downloads stop when the app is closed.
+ * @param {number} options.segments The number of parallel connections of the "http" engine (default 4).
+ * @param {boolean} options.cache Keep the downloaded file in the download cache and serve later downloads of the same
+ *     uri from it (Android, default false).
+ * @param {number} options.cacheMaxAge How long a cached file is used without asking the server, in milliseconds
+ *     (default 0, always revalidated).
+ * @param {number} options.progressDelta Only report progress after at least this many new bytes (default 0).
+ * @param {number} options.progressPercent Only report progress after at least this percentage of the file (default 0).
+ * @param {Object} options.retry Restart the download after transient failures (Android, default no retries).
+ * @param {number} options.retry.maxAttempts The maximum number of attempts including the first one (default 3).
+ * @param {number} options.retry.baseDelay The delay before the first retry in milliseconds (default 1000).
+ * @param {number} options.retry.maxDelay The maximum delay between attempts in milliseconds (default 60000).
+ * @param {number} options.retry.backoff The factor the delay grows by with each attempt (default 2).
+ * @param {number} options.retry.jitter The randomized fraction of the delay, from 0 to 1 (default 1).
+ * @param {Array} options.retry.retryableReasons The reason codes or names to retry, e.g. "ERROR_HTTP_DATA_ERROR" or 503
+ *     (default data errors, cannot resume, unknown errors and HTTP 408, 429, 500, 502, 503, 504).
+ * @param {Object} options.digest The checksum the downloaded file must have, a mismatch fails with CHECKSUM_MISMATCH
+ *     and the result file is not written (Android).
+ * @param {string} options.digest.algorithm "SHA-256" (default), "SHA-1", "MD5" or "CRC32".
+ * @param {string} options.digest.value The expected checksum as hex.
+ * @param {string[]} options.allowedNetworks The networks the download may use, "wifi" and/or "mobile" (default any).
+ * @param {boolean} options.allowRoaming Whether the download may run while roaming (default true).
+ * @param {boolean} options.allowMetered Whether the download may run on a metered network (default true).
+ * @param {boolean} options.requiresCharging Only run while the device is charging (default false).
+ * @param {boolean} options.requiresIdle Only run while the device is not in use (default false). Ignored by the
+ *     "http" engine.
+ * @param {string} options.reserveSpace Check and reserve free space before the download starts (Android): "fail" to
+ *     fail right away with ERROR_INSUFFICIENT_SPACE, "wait" to keep the download queued until it fits (default none).
+ * @param {number} options.expectedSize The size of the file in bytes, saves the HEAD request reserveSpace otherwise
+ *     uses to learn it.
+ * @param {string} options.extract "zip" to extract the downloaded archive into resultFile as a directory, "gzip" to
+ *     decompress it into resultFile (Android).
  */
-var DownloadOperation = function (uri, resultFile, uriMatcher, notificationTitle, headers) {
+var DownloadOperation = function (uri, resultFile, uriMatcher, notificationTitle, headers, options) {
 
     if (uri == null || resultFile == null) {
         throw new Error("missing or invalid argument");
@@ -42,6 +79,7 @@ var DownloadOperation = function (uri, resultFile, uriMatcher, notificationTitle
     this.uriMatcher = uriMatcher;
     this.notificationTitle = notificationTitle;
     this.headers = headers;
+    this.options = options || {};
 };
 
 /**
@@ -66,7 +104,7 @@ DownloadOperation.prototype.startAsync = function() {
             deferral.reject(err);
         };
 
-    exec(successCallback, errorCallback, "BackgroundDownload", "startAsync", [this.uri, this.resultFile.nativeURL, this.uriMatcher, this.notificationTitle, this.headers]);
+    exec(successCallback, errorCallback, "BackgroundDownload", "startAsync", [this.uri, this.resultFile.nativeURL, this.uriMatcher, this.notificationTitle, this.headers, this.options]);
 
     // custom mechanism to trigger stop when user cancels pending operation
     deferral.promise.onCancelled = function () {
@@ -85,4 +123,40 @@ DownloadOperation.prototype.stop = function() {
 
 };
 
+/**
+ * Changes the priority of a download operation. Only affects the order in which queued downloads are started.
+ *
+ * @param {number} priority The new priority, downloads with higher priority are started first.
+ */
+DownloadOperation.prototype.setPriority = function(priority) {
+    this.options.priority = priority;
+    return execAsync("setPriority", [this.uri, priority]);
+};
+
+/**
+ * Holds a queued download operation, so it is not started until resumed.
+ */
+DownloadOperation.prototype.pause = function() {
+    return execAsync("pause", [this.uri]);
+};
+
+/**
+ * Returns a download operation held by pause to the queue.
+ */
+DownloadOperation.prototype.resume = function() {
+    return execAsync("resume", [this.uri]);
+};
+
+function execAsync(action, args) {
+    var deferral = new Promise.Deferral();
+
+    exec(function(result) {
+        deferral.resolve(result);
+    }, function(err) {
+        deferral.reject(err);
+    }, "BackgroundDownload", action, args);
+
+    return deferral.promise;
+}
+
 module.exports = DownloadOperation;